@@ -1,16 +1,29 @@
 package org.by1337.bvault.api;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 public abstract class BEconomy {
     public static String DEFAULT_BANK = "vault";
+    // the page size of the default methods that read a whole bank through getTopPage0
+    private static final int FALLBACK_PAGE_SIZE = 1000;
 
     /**
      * Gets the name of the economy system.
@@ -19,6 +32,19 @@ public abstract class BEconomy {
      */
     public abstract String getName();
 
+    /**
+     * Gets the handle of a bank. Calls taking the handle skip the checks and lookups of the bank name.
+     *
+     * @param bank The name of the bank.
+     * @return The handle of the bank, the same instance for every call with this name.
+     * @throws NullPointerException     if the bank is null.
+     * @throws IllegalArgumentException if the name is not a valid bank name.
+     */
+    @NotNull
+    public BankHandle bank(@NotNull String bank) {
+        return BankHandle.of(bank);
+    }
+
     /**
      * Withdraws a specified amount of money from the player's account in the default bank.
      *
@@ -31,7 +57,7 @@ public abstract class BEconomy {
     public CompletableFuture<Double> withdraw(@NotNull UUID player, double amount) {
         Objects.requireNonNull(player, "Player is null!");
         Validate.assertPositive(amount);
-        return withdraw0(DEFAULT_BANK, player, amount);
+        return withdraw0(bank(DEFAULT_BANK), player, amount);
     }
 
     /**
@@ -48,9 +74,7 @@ public abstract class BEconomy {
         Objects.requireNonNull(player, "Player is null!");
         Objects.requireNonNull(bank, "bank is null!");
         Validate.assertPositive(amount);
-        Validate.charactersCheck(bank);
-        Validate.checkToLarge(bank, 16);
-        return withdraw0(bank, player, amount);
+        return withdraw0(bank(bank), player, amount);
     }
 
     /**
@@ -76,7 +100,7 @@ public abstract class BEconomy {
     public CompletableFuture<Double> deposit(@NotNull UUID player, double amount) {
         Objects.requireNonNull(player, "Player is null!");
         Validate.assertPositive(amount);
-        return deposit0(DEFAULT_BANK, player, amount);
+        return deposit0(bank(DEFAULT_BANK), player, amount);
     }
 
     /**
@@ -93,9 +117,7 @@ public abstract class BEconomy {
         Objects.requireNonNull(player, "Player is null!");
         Objects.requireNonNull(bank, "bank is null!");
         Validate.assertPositive(amount);
-        Validate.charactersCheck(bank);
-        Validate.checkToLarge(bank, 16);
-        return deposit0(bank, player, amount);
+        return deposit0(bank(bank), player, amount);
     }
 
     /**
@@ -118,7 +140,7 @@ public abstract class BEconomy {
      */
     public CompletableFuture<Double> getBalance(@NotNull UUID player) {
         Objects.requireNonNull(player, "Player is null!");
-        return getBalance0(DEFAULT_BANK, player);
+        return getBalance0(bank(DEFAULT_BANK), player);
     }
 
     /**
@@ -132,9 +154,7 @@ public abstract class BEconomy {
     public CompletableFuture<Double> getBalance(@NotNull String bank, @NotNull UUID player) {
         Objects.requireNonNull(player, "Player is null!");
         Objects.requireNonNull(bank, "bank is null!");
-        Validate.charactersCheck(bank);
-        Validate.checkToLarge(bank, 16);
-        return getBalance0(bank, player);
+        return getBalance0(bank(bank), player);
     }
 
     /**
@@ -147,6 +167,514 @@ public abstract class BEconomy {
      */
     protected abstract CompletableFuture<Double> getBalance0(@NotNull String bank, @NotNull UUID player);
 
+    /**
+     * Gets the balance of the player's account in the specified bank if the player is in memory, without waiting.
+     * Online players are always in memory.
+     *
+     * @param bank   The name of the bank.
+     * @param player The UUID of the player.
+     * @return The balance, or an empty OptionalDouble if the player would have to be loaded first.
+     * @throws NullPointerException if the player or bank is null.
+     */
+    public OptionalDouble getBalanceIfCached(@NotNull String bank, @NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        return getBalanceIfCached0(bank(bank), player);
+    }
+
+    /**
+     * Gets the balance of the player's account in the specified bank if the player is in memory.
+     * Subclasses should override this, the default answers only if {@link #getBalance0(String, UUID)} completes at once.
+     *
+     * @param bank   The name of the bank.
+     * @param player The UUID of the player.
+     * @return The balance, or an empty OptionalDouble if the player would have to be loaded first.
+     */
+    protected OptionalDouble getBalanceIfCached0(@NotNull String bank, @NotNull UUID player) {
+        CompletableFuture<Double> future = getBalance0(bank, player);
+        if (!future.isDone() || future.isCompletedExceptionally()) return OptionalDouble.empty();
+        return OptionalDouble.of(future.join());
+    }
+
+    /**
+     * Gets the balances of many players in the specified bank at once.
+     * Players in memory are answered from there, the others are read together instead of one by one.
+     * The players read are not kept in memory, see {@link #getBalances(String, Collection, boolean)}.
+     *
+     * @param bank    The name of the bank.
+     * @param players The UUIDs of the players.
+     * @return A CompletableFuture containing the balance of every given player, 0 for players without an account.
+     * @throws NullPointerException     if the bank, the collection or any of the players is null.
+     * @throws IllegalArgumentException if the name is not a valid bank name.
+     */
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull String bank, @NotNull Collection<UUID> players) {
+        return getBalances(bank, players, false);
+    }
+
+    /**
+     * Gets the balances of many players in the specified bank at once.
+     * Players in memory are answered from there, the others are read together instead of one by one.
+     *
+     * @param bank    The name of the bank.
+     * @param players The UUIDs of the players.
+     * @param cache   Whether the players that are not in memory are loaded into it, which pays off
+     *                if their balances are about to be changed or read again.
+     * @return A CompletableFuture containing the balance of every given player, 0 for players without an account.
+     * @throws NullPointerException     if the bank, the collection or any of the players is null.
+     * @throws IllegalArgumentException if the name is not a valid bank name.
+     */
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull String bank, @NotNull Collection<UUID> players, boolean cache) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getBalances(bank(bank), players, cache);
+    }
+
+    /**
+     * Gets the balances of many players in the bank of the handle at once.
+     * The players read are not kept in memory, see {@link #getBalances(BankHandle, Collection, boolean)}.
+     *
+     * @param bank    The handle of the bank, see {@link #bank(String)}.
+     * @param players The UUIDs of the players.
+     * @return A CompletableFuture containing the balance of every given player, 0 for players without an account.
+     * @throws NullPointerException if the bank, the collection or any of the players is null.
+     * @see #getBalances(String, Collection)
+     */
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull BankHandle bank, @NotNull Collection<UUID> players) {
+        return getBalances(bank, players, false);
+    }
+
+    /**
+     * Gets the balances of many players in the bank of the handle at once.
+     *
+     * @param bank    The handle of the bank, see {@link #bank(String)}.
+     * @param players The UUIDs of the players.
+     * @param cache   Whether the players that are not in memory are loaded into it.
+     * @return A CompletableFuture containing the balance of every given player, 0 for players without an account.
+     * @throws NullPointerException if the bank, the collection or any of the players is null.
+     * @see #getBalances(String, Collection, boolean)
+     */
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull BankHandle bank, @NotNull Collection<UUID> players, boolean cache) {
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(players, "players is null!");
+        for (UUID player : players) {
+            Objects.requireNonNull(player, "Player is null!");
+        }
+        return getBalances0(bank, players, cache);
+    }
+
+    /**
+     * Gets the balances of many players in the specified bank at once.
+     * Subclasses should override this, the default asks {@link #getBalance0(BankHandle, UUID)} for every player.
+     *
+     * @param bank    The handle of the bank.
+     * @param players The UUIDs of the players, none of them null.
+     * @param cache   Whether the players that are not in memory are loaded into it.
+     * @return A CompletableFuture containing the balance of every given player.
+     */
+    protected CompletableFuture<Map<UUID, Double>> getBalances0(@NotNull BankHandle bank, @NotNull Collection<UUID> players, boolean cache) {
+        Map<UUID, CompletableFuture<Double>> futures = new HashMap<>();
+        for (UUID player : players) {
+            if (!futures.containsKey(player)) {
+                futures.put(player, getBalance0(bank, player));
+            }
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).thenApply(v -> {
+            Map<UUID, Double> result = new HashMap<>();
+            for (Map.Entry<UUID, CompletableFuture<Double>> entry : futures.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Gets the balance of the player's account in the specified bank and passes it to a callback,
+     * without a CompletableFuture or a boxed Double.
+     * The callback runs on the calling thread if the player is in memory, otherwise on the thread that loaded the player.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param onSuccess Receives the balance.
+     * @param onError   Receives the error if the balance could not be read.
+     * @throws NullPointerException if any argument is null.
+     */
+    public void getBalance(@NotNull String bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        getBalance0(bank(bank), player, onSuccess, onError);
+    }
+
+    /**
+     * Gets the balance of the player's account in the specified bank and passes it to a callback.
+     * Subclasses should override this, the default adapts {@link #getBalance0(String, UUID)}.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param onSuccess Receives the balance.
+     * @param onError   Receives the error if the balance could not be read.
+     */
+    protected void getBalance0(@NotNull String bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        adapt(getBalance0(bank, player), onSuccess, onError);
+    }
+
+    /**
+     * Withdraws a specified amount of money from the player's account in the specified bank and passes the new
+     * balance to a callback, without a CompletableFuture or a boxed Double.
+     * The callback runs on the calling thread if the player is in memory, otherwise on the thread that loaded the player.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to withdraw.
+     * @param onSuccess Receives the new balance after the withdrawal.
+     * @param onError   Receives the error if the withdrawal failed.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     */
+    public void withdraw(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        Validate.assertPositive(amount);
+        withdraw0(bank(bank), player, amount, onSuccess, onError);
+    }
+
+    /**
+     * Withdraws a specified amount of money from the player's account in the specified bank.
+     * Subclasses should override this, the default adapts {@link #withdraw0(String, UUID, double)}.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to withdraw.
+     * @param onSuccess Receives the new balance after the withdrawal.
+     * @param onError   Receives the error if the withdrawal failed.
+     */
+    protected void withdraw0(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        adapt(withdraw0(bank, player, amount), onSuccess, onError);
+    }
+
+    /**
+     * Deposits a specified amount of money into the player's account in the specified bank and passes the new
+     * balance to a callback, without a CompletableFuture or a boxed Double.
+     * The callback runs on the calling thread if the player is in memory, otherwise on the thread that loaded the player.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to deposit.
+     * @param onSuccess Receives the new balance after the deposit.
+     * @param onError   Receives the error if the deposit failed.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     */
+    public void deposit(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        Validate.assertPositive(amount);
+        deposit0(bank(bank), player, amount, onSuccess, onError);
+    }
+
+    /**
+     * Deposits a specified amount of money into the player's account in the specified bank.
+     * Subclasses should override this, the default adapts {@link #deposit0(String, UUID, double)}.
+     *
+     * @param bank      The name of the bank.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to deposit.
+     * @param onSuccess Receives the new balance after the deposit.
+     * @param onError   Receives the error if the deposit failed.
+     */
+    protected void deposit0(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        adapt(deposit0(bank, player, amount), onSuccess, onError);
+    }
+
+    /**
+     * Withdraws a specified amount of money from the player's account in the bank of the handle.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param player The UUID of the player.
+     * @param amount The amount of money to withdraw.
+     * @return A CompletableFuture containing the new balance after the withdrawal.
+     * @throws NullPointerException     if the player or bank is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     */
+    public CompletableFuture<Double> withdraw(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Validate.assertPositive(amount);
+        return withdraw0(bank, player, amount);
+    }
+
+    /**
+     * Withdraws a specified amount of money from the player's account in the bank of the handle and passes the
+     * new balance to a callback.
+     *
+     * @param bank      The handle of the bank, see {@link #bank(String)}.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to withdraw.
+     * @param onSuccess Receives the new balance after the withdrawal.
+     * @param onError   Receives the error if the withdrawal failed.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     * @see #withdraw(String, UUID, double, DoubleConsumer, Consumer)
+     */
+    public void withdraw(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        Validate.assertPositive(amount);
+        withdraw0(bank, player, amount, onSuccess, onError);
+    }
+
+    /**
+     * Deposits a specified amount of money into the player's account in the bank of the handle.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param player The UUID of the player.
+     * @param amount The amount of money to deposit.
+     * @return A CompletableFuture containing the new balance after the deposit.
+     * @throws NullPointerException     if the player or bank is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     */
+    public CompletableFuture<Double> deposit(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Validate.assertPositive(amount);
+        return deposit0(bank, player, amount);
+    }
+
+    /**
+     * Deposits a specified amount of money into the player's account in the bank of the handle and passes the
+     * new balance to a callback.
+     *
+     * @param bank      The handle of the bank, see {@link #bank(String)}.
+     * @param player    The UUID of the player.
+     * @param amount    The amount of money to deposit.
+     * @param onSuccess Receives the new balance after the deposit.
+     * @param onError   Receives the error if the deposit failed.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if the amount is not positive.
+     * @see #deposit(String, UUID, double, DoubleConsumer, Consumer)
+     */
+    public void deposit(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        Validate.assertPositive(amount);
+        deposit0(bank, player, amount, onSuccess, onError);
+    }
+
+    /**
+     * Gets the balance of the player's account in the bank of the handle.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param player The UUID of the player.
+     * @return A CompletableFuture containing the balance.
+     * @throws NullPointerException if the player or bank is null.
+     */
+    public CompletableFuture<Double> getBalance(@NotNull BankHandle bank, @NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        return getBalance0(bank, player);
+    }
+
+    /**
+     * Gets the balance of the player's account in the bank of the handle and passes it to a callback.
+     *
+     * @param bank      The handle of the bank, see {@link #bank(String)}.
+     * @param player    The UUID of the player.
+     * @param onSuccess Receives the balance.
+     * @param onError   Receives the error if the balance could not be read.
+     * @throws NullPointerException if any argument is null.
+     * @see #getBalance(String, UUID, DoubleConsumer, Consumer)
+     */
+    public void getBalance(@NotNull BankHandle bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(onSuccess, "onSuccess is null!");
+        Objects.requireNonNull(onError, "onError is null!");
+        getBalance0(bank, player, onSuccess, onError);
+    }
+
+    /**
+     * Gets the balance of the player's account in the bank of the handle if the player is in memory, without waiting.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param player The UUID of the player.
+     * @return The balance, or an empty OptionalDouble if the player would have to be loaded first.
+     * @throws NullPointerException if the player or bank is null.
+     */
+    public OptionalDouble getBalanceIfCached(@NotNull BankHandle bank, @NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        return getBalanceIfCached0(bank, player);
+    }
+
+    // The handle variants of the hooks. Subclasses should override these, the defaults call the variants taking the name.
+
+    protected CompletableFuture<Double> withdraw0(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        return withdraw0(bank.name(), player, amount);
+    }
+
+    protected void withdraw0(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        withdraw0(bank.name(), player, amount, onSuccess, onError);
+    }
+
+    protected CompletableFuture<Double> deposit0(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        return deposit0(bank.name(), player, amount);
+    }
+
+    protected void deposit0(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        deposit0(bank.name(), player, amount, onSuccess, onError);
+    }
+
+    protected CompletableFuture<Double> getBalance0(@NotNull BankHandle bank, @NotNull UUID player) {
+        return getBalance0(bank.name(), player);
+    }
+
+    protected void getBalance0(@NotNull BankHandle bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        getBalance0(bank.name(), player, onSuccess, onError);
+    }
+
+    protected OptionalDouble getBalanceIfCached0(@NotNull BankHandle bank, @NotNull UUID player) {
+        return getBalanceIfCached0(bank.name(), player);
+    }
+
+    protected CompletableFuture<Long> getRank0(@NotNull BankHandle bank, @NotNull UUID player) {
+        return getRank0(bank.name(), player);
+    }
+
+    protected CompletableFuture<Long> getAccountCount0(@NotNull BankHandle bank) {
+        return getAccountCount0(bank.name());
+    }
+
+    @NotNull
+    protected BankStats getStats0(@NotNull BankHandle bank) {
+        return getStats0(bank.name());
+    }
+
+    protected CompletableFuture<TopPage> getTopPage0(@NotNull BankHandle bank, @Nullable String cursor, int pageSize) {
+        return getTopPage0(bank.name(), cursor, pageSize);
+    }
+
+    /**
+     * Moves a specified amount of money from one player's account to another's in the specified bank.
+     * Unlike a withdraw followed by a deposit, both balances change together and are saved together,
+     * so a crash never keeps one side of the transfer without the other.
+     * Like {@link #withdraw(String, UUID, double)} this does not check that the balance covers the amount,
+     * see {@link #transfer(String, UUID, UUID, double, boolean)} for that.
+     *
+     * @param bank   The name of the bank.
+     * @param from   The UUID of the paying player.
+     * @param to     The UUID of the receiving player.
+     * @param amount The amount of money to move.
+     * @return A CompletableFuture containing the new balance of the paying player.
+     * @throws NullPointerException     if a player or the bank is null.
+     * @throws IllegalArgumentException if both players are the same, the amount is not positive or the name is not a valid bank name.
+     */
+    public CompletableFuture<Double> transfer(@NotNull String bank, @NotNull UUID from, @NotNull UUID to, double amount) {
+        return transfer(bank, from, to, amount, false);
+    }
+
+    /**
+     * Moves a specified amount of money from one player's account to another's in the specified bank,
+     * optionally only if the paying player can afford it.
+     *
+     * @param bank         The name of the bank.
+     * @param from         The UUID of the paying player.
+     * @param to           The UUID of the receiving player.
+     * @param amount       The amount of money to move.
+     * @param requireFunds Whether to reject the transfer if it would take the balance of the paying player below zero.
+     *                     The future then completes exceptionally with an IllegalStateException and no balance changes.
+     * @return A CompletableFuture containing the new balance of the paying player.
+     * @throws NullPointerException     if a player or the bank is null.
+     * @throws IllegalArgumentException if both players are the same, the amount is not positive or the name is not a valid bank name.
+     * @see #transfer(String, UUID, UUID, double)
+     */
+    public CompletableFuture<Double> transfer(@NotNull String bank, @NotNull UUID from, @NotNull UUID to, double amount, boolean requireFunds) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return transfer(bank(bank), from, to, amount, requireFunds);
+    }
+
+    /**
+     * Moves a specified amount of money from one player's account to another's in the bank of the handle.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param from   The UUID of the paying player.
+     * @param to     The UUID of the receiving player.
+     * @param amount The amount of money to move.
+     * @return A CompletableFuture containing the new balance of the paying player.
+     * @throws NullPointerException     if a player or the bank is null.
+     * @throws IllegalArgumentException if both players are the same or the amount is not positive.
+     * @see #transfer(String, UUID, UUID, double)
+     */
+    public CompletableFuture<Double> transfer(@NotNull BankHandle bank, @NotNull UUID from, @NotNull UUID to, double amount) {
+        return transfer(bank, from, to, amount, false);
+    }
+
+    /**
+     * Moves a specified amount of money from one player's account to another's in the bank of the handle,
+     * optionally only if the paying player can afford it.
+     *
+     * @param bank         The handle of the bank, see {@link #bank(String)}.
+     * @param from         The UUID of the paying player.
+     * @param to           The UUID of the receiving player.
+     * @param amount       The amount of money to move.
+     * @param requireFunds Whether to reject the transfer if it would take the balance of the paying player below zero.
+     * @return A CompletableFuture containing the new balance of the paying player.
+     * @throws NullPointerException     if a player or the bank is null.
+     * @throws IllegalArgumentException if both players are the same or the amount is not positive.
+     * @see #transfer(String, UUID, UUID, double, boolean)
+     */
+    public CompletableFuture<Double> transfer(@NotNull BankHandle bank, @NotNull UUID from, @NotNull UUID to, double amount, boolean requireFunds) {
+        Objects.requireNonNull(bank, "bank is null!");
+        Objects.requireNonNull(from, "Player is null!");
+        Objects.requireNonNull(to, "Player is null!");
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Cannot transfer to the same player!");
+        }
+        Validate.assertPositive(amount);
+        return transfer0(bank, from, to, amount, requireFunds);
+    }
+
+    /**
+     * Moves a specified amount of money from one player's account to another's.
+     * Subclasses should override this, the default is a withdraw followed by a deposit, which is not atomic.
+     * With requireFunds it gives an uncovered withdrawal back with a deposit, so others may see it for a moment.
+     *
+     * @param bank         The handle of the bank.
+     * @param from         The UUID of the paying player.
+     * @param to           The UUID of the receiving player.
+     * @param amount       The amount of money to move.
+     * @param requireFunds Whether to reject the transfer if it would take the balance of the paying player below zero.
+     * @return A CompletableFuture containing the new balance of the paying player,
+     * completed exceptionally with an IllegalStateException if the funds were required and not there.
+     */
+    protected CompletableFuture<Double> transfer0(@NotNull BankHandle bank, @NotNull UUID from, @NotNull UUID to, double amount, boolean requireFunds) {
+        return withdraw0(bank, from, amount).thenCompose(balance -> {
+            if (requireFunds && balance < 0) {
+                return deposit0(bank, from, amount).thenApply(ignored -> {
+                    throw new IllegalStateException("Insufficient funds!");
+                });
+            }
+            return deposit0(bank, to, amount).thenApply(ignored -> balance);
+        });
+    }
+
+    private static void adapt(CompletableFuture<Double> future, DoubleConsumer onSuccess, Consumer<Throwable> onError) {
+        future.whenComplete((balance, t) -> {
+            if (t != null) {
+                onError.accept(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            } else {
+                onSuccess.accept(balance);
+            }
+        });
+    }
+
     /**
      * Gets the set of all existed player's bank accounts.
      *
@@ -168,6 +696,199 @@ public abstract class BEconomy {
      */
     protected abstract CompletableFuture<Set<String>> getExistedBanks0(@NotNull UUID player);
 
+    /**
+     * Gets the position of the player in the default bank, 1 for the richest player.
+     *
+     * @param player The UUID of the player.
+     * @return A CompletableFuture containing the position.
+     * @throws NullPointerException if the player is null.
+     * @see #getRank(String, UUID)
+     */
+    public CompletableFuture<Long> getRank(@NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        return getRank0(bank(DEFAULT_BANK), player);
+    }
+
+    /**
+     * Gets the position of the player among all accounts of the specified bank, 1 for the richest player.
+     * Players with equal balances share a position.
+     * Positions outside the top list may be a few seconds old, see {@code dataBase.rankStaleness} in the config.
+     *
+     * @param bank   The name of the bank.
+     * @param player The UUID of the player.
+     * @return A CompletableFuture containing the position.
+     * @throws NullPointerException if the player or bank is null.
+     */
+    public CompletableFuture<Long> getRank(@NotNull String bank, @NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        return getRank0(bank(bank), player);
+    }
+
+    /**
+     * Gets the position of the player among all accounts of the bank of the handle, 1 for the richest player.
+     *
+     * @param bank   The handle of the bank, see {@link #bank(String)}.
+     * @param player The UUID of the player.
+     * @return A CompletableFuture containing the position.
+     * @throws NullPointerException if the player or bank is null.
+     * @see #getRank(String, UUID)
+     */
+    public CompletableFuture<Long> getRank(@NotNull BankHandle bank, @NotNull UUID player) {
+        Objects.requireNonNull(player, "Player is null!");
+        Objects.requireNonNull(bank, "bank is null!");
+        return getRank0(bank, player);
+    }
+
+    /**
+     * Gets the position of the player in the specified bank.
+     * Subclasses should override this, the default counts the richer players through {@link #getTopPage0(String, String, int)},
+     * reading every page down to the player, so it costs O(position) and loads the player like {@link #getBalance0(String, UUID)}.
+     * With the default {@link #getTopPage0(String, String, int)} players below the top list rank just after it.
+     *
+     * @param bank   The name of the bank.
+     * @param player The UUID of the player.
+     * @return A CompletableFuture containing the position.
+     */
+    protected CompletableFuture<Long> getRank0(@NotNull String bank, @NotNull UUID player) {
+        return getBalance0(bank, player).thenCompose(balance -> {
+            long[] above = new long[1];
+            return forEachPage(bank, null, page -> {
+                for (User user : page.users()) {
+                    // players with equal balances share a position
+                    if (user.balance() <= balance) return false;
+                    above[0]++;
+                }
+                return true;
+            }).thenApply(v -> above[0] + 1);
+        });
+    }
+
+    /**
+     * Reads the pages of {@link #getTopPage0(String, String, int)} one after another, richest first.
+     *
+     * @param visitor gets every page, returns false to stop before the next one.
+     */
+    private CompletableFuture<Void> forEachPage(String bank, @Nullable String cursor, Predicate<TopPage> visitor) {
+        return getTopPage0(bank, cursor, FALLBACK_PAGE_SIZE).thenCompose(page -> {
+            if (!visitor.test(page) || !page.hasNext()) return CompletableFuture.completedFuture(null);
+            return forEachPage(bank, page.nextCursor(), visitor);
+        });
+    }
+
+    /**
+     * Gets the number of accounts in the specified bank.
+     *
+     * @param bank The name of the bank.
+     * @return A CompletableFuture containing the number of accounts.
+     * @throws NullPointerException if the bank is null.
+     */
+    public CompletableFuture<Long> getAccountCount(@NotNull String bank) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getAccountCount0(bank(bank));
+    }
+
+    /**
+     * Gets the number of accounts in the bank of the handle.
+     *
+     * @param bank The handle of the bank, see {@link #bank(String)}.
+     * @return A CompletableFuture containing the number of accounts.
+     * @throws NullPointerException if the bank is null.
+     */
+    public CompletableFuture<Long> getAccountCount(@NotNull BankHandle bank) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getAccountCount0(bank);
+    }
+
+    /**
+     * Gets the number of accounts in the specified bank.
+     * Subclasses should override this, the default counts every page of {@link #getTopPage0(String, String, int)},
+     * so it costs O(accounts). With the default {@link #getTopPage0(String, String, int)} only the top list is counted.
+     *
+     * @param bank The name of the bank.
+     * @return A CompletableFuture containing the number of accounts.
+     */
+    protected CompletableFuture<Long> getAccountCount0(@NotNull String bank) {
+        long[] accounts = new long[1];
+        return forEachPage(bank, null, page -> {
+            accounts[0] += page.users().size();
+            return true;
+        }).thenApply(v -> accounts[0]);
+    }
+
+    /**
+     * Gets the money supply and balance distribution of the specified bank.
+     * BVault keeps the statistics in memory, so there this method does not block.
+     *
+     * @param bank The name of the bank.
+     * @return The statistics of the bank.
+     * @throws NullPointerException if the bank is null.
+     */
+    @NotNull
+    public BankStats getStats(@NotNull String bank) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getStats0(bank(bank));
+    }
+
+    /**
+     * Gets the money supply and balance distribution of the bank of the handle.
+     *
+     * @param bank The handle of the bank, see {@link #bank(String)}.
+     * @return The statistics of the bank.
+     * @throws NullPointerException if the bank is null.
+     * @see #getStats(String)
+     */
+    @NotNull
+    public BankStats getStats(@NotNull BankHandle bank) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getStats0(bank);
+    }
+
+    /**
+     * Gets the money supply and balance distribution of the specified bank.
+     * Subclasses should override this, the default blocks while it reads every page of {@link #getTopPage0(String, String, int)},
+     * so it costs O(accounts) time and memory. With the default {@link #getTopPage0(String, String, int)} only the top list is counted.
+     *
+     * @param bank The name of the bank.
+     * @return The statistics of the bank.
+     */
+    @NotNull
+    protected BankStats getStats0(@NotNull String bank) {
+        List<Double> balances = new ArrayList<>();
+        forEachPage(bank, null, page -> {
+            for (User user : page.users()) {
+                balances.add(user.balance());
+            }
+            return true;
+        }).join();
+        if (balances.isEmpty()) return new BankStats(0, 0, 0, 0, 0, 0);
+        double total = 0;
+        double top = 0;
+        // the richest 1%, at least one account
+        int richest = Math.max(1, (balances.size() + 99) / 100);
+        for (int i = 0; i < balances.size(); i++) {
+            total += balances.get(i);
+            if (i < richest) top += balances.get(i);
+        }
+        return new BankStats(
+                balances.size(),
+                total,
+                quantile(balances, 0.5),
+                quantile(balances, 0.9),
+                quantile(balances, 0.99),
+                total == 0 ? 0 : top / total
+        );
+    }
+
+    /**
+     * @param richestFirst the balances, richest first.
+     * @param q            the quantile, 0.5 for the median.
+     */
+    private static double quantile(List<Double> richestFirst, double q) {
+        int rank = (int) (q * (richestFirst.size() - 1));
+        return richestFirst.get(richestFirst.size() - 1 - rank);
+    }
+
     /**
      * Returns an unmodifiable set of all known banks.
      *
@@ -183,6 +904,71 @@ public abstract class BEconomy {
      */
     public abstract List<User> getTopByBank(@NotNull String bank, int limit);
 
+    /**
+     * Returns one page of all players of a bank by balance, richest first, not limited by the size of the top list.
+     * Pages are chained by cursors: pass null for the first page and {@link TopPage#nextCursor()} for the following ones.
+     * A page is read by a seek from the cursor, so deep pages cost the same as the first one.
+     *
+     * @param bank     The name of the bank.
+     * @param cursor   The cursor of the page, or null for the first page.
+     * @param pageSize The number of players per page.
+     * @return A CompletableFuture containing the page.
+     * @throws NullPointerException     if the bank is null.
+     * @throws IllegalArgumentException if the page size is not positive or the cursor is malformed.
+     */
+    public CompletableFuture<TopPage> getTopPage(@NotNull String bank, @Nullable String cursor, int pageSize) {
+        Objects.requireNonNull(bank, "bank is null!");
+        return getTopPage(bank(bank), cursor, pageSize);
+    }
+
+    /**
+     * Returns one page of all players of the bank of the handle by balance, richest first.
+     *
+     * @param bank     The handle of the bank, see {@link #bank(String)}.
+     * @param cursor   The cursor of the page, or null for the first page.
+     * @param pageSize The number of players per page.
+     * @return A CompletableFuture containing the page.
+     * @throws NullPointerException     if the bank is null.
+     * @throws IllegalArgumentException if the page size is not positive or the cursor is malformed.
+     * @see #getTopPage(String, String, int)
+     */
+    public CompletableFuture<TopPage> getTopPage(@NotNull BankHandle bank, @Nullable String cursor, int pageSize) {
+        Objects.requireNonNull(bank, "bank is null!");
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than 0!");
+        }
+        return getTopPage0(bank, cursor, pageSize);
+    }
+
+    /**
+     * Returns one page of all players of a bank by balance.
+     * Subclasses should override this, the default pages through {@link #getTopByBank(String, int)},
+     * so it ends with the top list. Its cursors are the position of the first player of the page.
+     *
+     * @param bank     The name of the bank.
+     * @param cursor   The cursor of the page, or null for the first page.
+     * @param pageSize The number of players per page.
+     * @return A CompletableFuture containing the page.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    protected CompletableFuture<TopPage> getTopPage0(@NotNull String bank, @Nullable String cursor, int pageSize) {
+        int from = 0;
+        if (cursor != null) {
+            try {
+                from = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+            }
+            if (from < 0) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor);
+            }
+        }
+        List<User> top = getTopByBank(bank, -1);
+        int to = (int) Math.min(top.size(), (long) from + pageSize);
+        List<User> users = from >= to ? Collections.<User>emptyList() : new ArrayList<>(top.subList(from, to));
+        return CompletableFuture.completedFuture(new TopPage(users, from, to < top.size() ? String.valueOf(to) : null));
+    }
+
     /**
      * Returns the top players by balance in a specific bank with no limit specified.
      * @param bank - the bank for which the top list will be created.
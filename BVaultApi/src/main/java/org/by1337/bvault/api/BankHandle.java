@@ -0,0 +1,100 @@
+package org.by1337.bvault.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A validated bank name with a small dense id, obtained from {@link BEconomy#bank(String)}.
+ * Handles are interned: there is exactly one instance per name, so they can be compared with {@code ==},
+ * and a name keeps its handle and id for the life of the JVM.
+ * Keep the handle of a bank used often, calls taking it skip the name checks and lookups.
+ */
+public final class BankHandle {
+    private static final ConcurrentMap<String, BankHandle> byName = new ConcurrentHashMap<>();
+    private static volatile BankHandle[] byId = new BankHandle[16];
+    private static int nextId;
+
+    private final String name;
+    private final int id;
+
+    private BankHandle(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * Gets the handle of a bank, creating it on first use. The name is checked only then.
+     *
+     * @param name The name of the bank.
+     * @return The handle of the bank.
+     * @throws NullPointerException     if the name is null.
+     * @throws IllegalArgumentException if the name is not a valid bank name.
+     */
+    @NotNull
+    public static BankHandle of(@NotNull String name) {
+        BankHandle handle = byName.get(name);
+        return handle != null ? handle : create(name);
+    }
+
+    private static synchronized BankHandle create(String name) {
+        Objects.requireNonNull(name, "bank is null!");
+        BankHandle handle = byName.get(name);
+        if (handle != null) return handle;
+        Validate.charactersCheck(name);
+        Validate.checkToLarge(name, 16);
+        handle = new BankHandle(name, nextId++);
+        BankHandle[] handles = byId;
+        if (handle.id >= handles.length) {
+            BankHandle[] grown = new BankHandle[handles.length * 2];
+            System.arraycopy(handles, 0, grown, 0, handles.length);
+            handles = grown;
+        }
+        handles[handle.id] = handle;
+        byId = handles;
+        byName.put(name, handle);
+        return handle;
+    }
+
+    /**
+     * Gets the handle with the given id.
+     *
+     * @param id The id of the bank.
+     * @return The handle.
+     * @throws IllegalArgumentException if no bank has this id.
+     */
+    @NotNull
+    public static BankHandle byId(int id) {
+        BankHandle[] handles = byId;
+        BankHandle handle = id >= 0 && id < handles.length ? handles[id] : null;
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown bank id " + id);
+        }
+        return handle;
+    }
+
+    /**
+     * The name of the bank.
+     * @return the name of the bank.
+     */
+    @NotNull
+    public String name() {
+        return name;
+    }
+
+    /**
+     * The id of the bank, from 0 up to the number of banks used since the start.
+     * Ids are not stored, the same bank may get another id after a restart.
+     * @return the id of the bank.
+     */
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,80 @@
+package org.by1337.bvault.api;
+
+/**
+ * Aggregate statistics of all accounts in a bank.
+ * Used in {@link BEconomy#getStats(String)}
+ * This class is intended to be used as a simple POJO.
+ */
+public final class BankStats {
+    private final long accounts;
+    private final double total;
+    private final double median;
+    private final double p90;
+    private final double p99;
+    private final double top1PercentShare;
+
+    public BankStats(long accounts, double total, double median, double p90, double p99, double top1PercentShare) {
+        this.accounts = accounts;
+        this.total = total;
+        this.median = median;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.top1PercentShare = top1PercentShare;
+    }
+
+    /**
+     * The number of accounts in the bank.
+     * @return the number of accounts.
+     */
+    public long accounts() {
+        return accounts;
+    }
+
+    /**
+     * The money in circulation, the sum of all balances. Exact.
+     * @return the sum of all balances.
+     */
+    public double total() {
+        return total;
+    }
+
+    /**
+     * The average balance.
+     * @return the average balance, or 0 if the bank has no accounts.
+     */
+    public double mean() {
+        return accounts == 0 ? 0 : total / accounts;
+    }
+
+    /**
+     * The median balance, within 1% of the true value.
+     * @return the median balance.
+     */
+    public double median() {
+        return median;
+    }
+
+    /**
+     * The balance that 90% of the accounts do not exceed, within 1% of the true value.
+     * @return the 90th percentile.
+     */
+    public double p90() {
+        return p90;
+    }
+
+    /**
+     * The balance that 99% of the accounts do not exceed, within 1% of the true value.
+     * @return the 99th percentile.
+     */
+    public double p99() {
+        return p99;
+    }
+
+    /**
+     * The part of all money held by the richest 1% of the accounts, from 0 to 1. Estimated within about 1%.
+     * @return the share of the richest 1%.
+     */
+    public double top1PercentShare() {
+        return top1PercentShare;
+    }
+}
@@ -0,0 +1,56 @@
+package org.by1337.bvault.api;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the players of a bank ordered by balance.
+ * Used in {@link BEconomy#getTopPage(String, String, int)}
+ * This class is intended to be used as a simple POJO.
+ */
+public final class TopPage {
+    private final List<User> users;
+    private final int from;
+    private final String nextCursor;
+
+    public TopPage(List<User> users, int from, @Nullable String nextCursor) {
+        this.users = Collections.unmodifiableList(users);
+        this.from = from;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * The players on this page, richest first.
+     * @return the players on this page.
+     */
+    public List<User> users() {
+        return users;
+    }
+
+    /**
+     * The position of the first player on this page, 0 for the richest player of the bank.
+     * @return the position of the first player.
+     */
+    public int from() {
+        return from;
+    }
+
+    /**
+     * The cursor to pass to {@link BEconomy#getTopPage(String, String, int)} for the next page.
+     * @return the cursor of the next page, or null if this is the last page.
+     */
+    @Nullable
+    public String nextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Whether there is a page after this one.
+     * @return true if {@link #nextCursor()} is not null.
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -2,7 +2,6 @@ package org.by1337.bvault.core;
 
 import com.google.common.base.Charsets;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
-import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import com.zaxxer.hikari.pool.HikariPool;
 import net.milkbowl.vault.economy.Economy;
@@ -13,6 +12,7 @@ import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 import org.by1337.blib.chat.util.Message;
 import org.by1337.blib.command.Command;
 import org.by1337.blib.command.CommandException;
@@ -20,9 +20,10 @@ import org.by1337.blib.configuration.YamlConfig;
 import org.by1337.blib.configuration.YamlContext;
 import org.by1337.bvault.api.BEconomy;
 import org.by1337.bvault.core.datafix.DbFix;
+import org.by1337.bvault.core.db.BankScales;
+import org.by1337.bvault.core.db.DataBaseFactory;
 import org.by1337.bvault.core.db.Database;
 import org.by1337.bvault.core.db.DisabledDatabase;
-import org.by1337.bvault.core.db.SqliteDatabase;
 import org.by1337.bvault.core.db.SwapableDatabase;
 import org.by1337.bvault.core.hook.DefaultVaultEconomyAdapter;
 import org.by1337.bvault.core.hook.PAPIHook;
@@ -39,8 +40,10 @@ import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.logging.Level;
 
 public class BVaultCore extends JavaPlugin {
     private Database dataBase;
@@ -50,8 +53,10 @@ public class BVaultCore extends JavaPlugin {
     private YamlConfig config;
     private BalTop balTop;
     private PAPIHook papiHook;
+    private DefaultVaultEconomyAdapter vaultAdapter;
     private Map<String, String> lang;
     private DbFix dbFix;
+    private BukkitTask snapshotTask;
 
     @Override
     public void onLoad() {
@@ -79,38 +84,85 @@ public class BVaultCore extends JavaPlugin {
 
         BEconomy bEconomy = new BEconomyImpl(swapableDatabase, this);
         Bukkit.getServicesManager().register(BEconomy.class, bEconomy, this, ServicePriority.Lowest);
-        Bukkit.getServicesManager().register(Economy.class, new DefaultVaultEconomyAdapter(bEconomy), this, ServicePriority.High);
+        vaultAdapter = new DefaultVaultEconomyAdapter(
+                bEconomy,
+                swapableDatabase,
+                config.getAsInteger("vault.timeout", 100),
+                coldAccountFallback()
+        );
+        Bukkit.getServicesManager().register(Economy.class, vaultAdapter, this, ServicePriority.High);
+    }
+
+    private DefaultVaultEconomyAdapter.ColdAccountFallback coldAccountFallback() {
+        String value = config.getAsString("vault.coldAccountFallback", "WAIT");
+        try {
+            return DefaultVaultEconomyAdapter.ColdAccountFallback.valueOf(value.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown vault.coldAccountFallback '" + value + "', using WAIT");
+            return DefaultVaultEconomyAdapter.ColdAccountFallback.WAIT;
+        }
     }
 
     @Override
     public void onEnable() {
-        balTop = new BalTop(this, config.getAsInteger("balTop.size", 100));
-        // dataBase = DataBaseFactory.create(this, config.getAsYamlValue("dataBase").getAsYamlContext(), balTop);
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setJdbcUrl(String.format("jdbc:sqlite:%s", new File(getDataFolder(), "data2.db").getPath()));
-
-        dataBase = new SqliteDatabase(hikariConfig, this, balTop);
+        YamlContext dbCfg = config.getAsYamlValue("dataBase").getAsYamlContext();
+        BankScales scales = new BankScales(
+                dbCfg.getAsInteger("defaultScale", BankScales.DEFAULT_SCALE),
+                dbCfg.getMap("scales", Integer.class, Map.of())
+        );
+        balTop = new BalTop(this, scales, config.getAsInteger("balTop.size", 100));
+        try {
+            balTop.loadSnapshots(getTopFile());
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "Failed to restore the top lists, they will be read from the database", e);
+        }
+        dataBase = DataBaseFactory.create(this, dbCfg, balTop, scales);
 
         swapableDatabase.setSource(dataBase);
 
         command = new Commands().create(this);
-        papiHook = new PAPIHook(config.getAsYamlValue("balTop").getAsYamlContext(), balTop, this);
+        papiHook = new PAPIHook(config.getAsYamlValue("balTop").getAsYamlContext(), balTop, swapableDatabase, this);
         papiHook.register();
+        getServer().getPluginManager().registerEvents(papiHook, this);
+        long snapshotInterval = config.getAsInteger("balTop.snapshotInterval", 300) * 20L;
+        if (snapshotInterval > 0) {
+            snapshotTask = getServer().getScheduler().runTaskTimerAsynchronously(this, this::saveTopSnapshots, snapshotInterval, snapshotInterval);
+        }
         dbFix.postEnabled(this);
     }
 
     @Override
     public void onDisable() {
         Bukkit.getServicesManager().unregisterAll(this);
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+        }
         dataBase.close();
         balTop.close();
+        saveTopSnapshots();
         papiHook.unregister();
     }
 
+    private void saveTopSnapshots() {
+        try {
+            balTop.saveSnapshots(getTopFile());
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "Failed to save the top lists", e);
+        }
+    }
+
+    private File getTopFile() {
+        return new File(getDataFolder(), "baltop.dat");
+    }
+
     public BalTop getBalTop() {
         return balTop;
     }
 
+    public DefaultVaultEconomyAdapter getVaultAdapter() {
+        return vaultAdapter;
+    }
+
     public Message getMessage() {
         return message;
     }
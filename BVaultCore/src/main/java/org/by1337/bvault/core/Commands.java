@@ -9,6 +9,7 @@ import org.by1337.blib.nbt.NBTToStringStyle;
 import org.by1337.blib.nbt.impl.CompoundTag;
 import org.by1337.blib.nbt.impl.ListNBT;
 import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankStats;
 import org.by1337.bvault.core.impl.BEconomyImpl;
 import org.by1337.bvault.core.top.BalTop;
 import org.by1337.bvault.core.top.TopInfo;
@@ -19,6 +20,7 @@ import java.nio.file.Files;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -97,6 +99,49 @@ public class Commands {
                             });
                         }))
                 )
+                .addSubCommand(new Command<CommandSender>("rank")
+                        .requires(new RequiresPermission<>("bvault.rank"))
+                        .argument(new ArgumentPlayer<>("uuid"))
+                        .argument(new ArgumentString<>("bank", () -> getBankList(core)))
+                        .executor(((sender, args) -> {
+                            Player player = (Player) args.getOrThrow("uuid", "Use: /bv rank <uuid> <bank>");
+                            String bank = (String) args.getOrDefault("bank", BEconomy.DEFAULT_BANK);
+                            BEconomy economy = core.getEconomy();
+                            economy.getRank(bank, player.getUniqueId())
+                                    .thenCombine(economy.getAccountCount(bank), (rank, count) -> new long[]{rank, count})
+                                    .whenComplete((r, t) -> {
+                                        if (t != null) {
+                                            core.getMessage().error(t);
+                                            core.getMessage().sendMsg(sender, core.getLang().get("failed"));
+                                        } else {
+                                            core.getMessage().sendMsg(sender, core.getLang().get("rank"),
+                                                    player.getName(),
+                                                    r[0],
+                                                    r[1],
+                                                    bank
+                                            );
+                                        }
+                                    });
+                        }))
+                )
+                .addSubCommand(new Command<CommandSender>("stats")
+                        .requires(new RequiresPermission<>("bvault.stats"))
+                        .argument(new ArgumentString<>("bank", () -> getBankList(core)))
+                        .executor(((sender, args) -> {
+                            String bank = (String) args.getOrDefault("bank", BEconomy.DEFAULT_BANK);
+                            BankStats stats = core.getEconomy().getStats(bank);
+                            core.getMessage().sendMsg(sender, core.getLang().get("stats"),
+                                    bank,
+                                    stats.accounts(),
+                                    stats.total(),
+                                    stats.mean(),
+                                    stats.median(),
+                                    stats.p90(),
+                                    stats.p99(),
+                                    stats.top1PercentShare() * 100
+                            );
+                        }))
+                )
                 .addSubCommand(new Command<CommandSender>("give")
                         .requires(new RequiresPermission<>("bvault.give"))
                         .argument(new ArgumentPlayer<>("uuid"))
@@ -161,6 +206,22 @@ public class Commands {
                             core.getMessage().sendMsg(sender, core.getLang().get("vaultProvider"), core.getEconomy().getName());
                         }))
                 )
+                .addSubCommand(new Command<CommandSender>("metrics")
+                        .requires(new RequiresPermission<>("bvault.metrics"))
+                        .executor(((sender, args) -> {
+                            if (core.getEconomy() instanceof BEconomyImpl eco) {
+                                for (Map.Entry<String, Number> entry : eco.getDataBase().getMetrics().entrySet()) {
+                                    core.getMessage().sendMsg(sender, core.getLang().get("metric"), entry.getKey(), entry.getValue());
+                                }
+                            }
+                            for (Map.Entry<String, Number> entry : core.getBalTop().getMetrics().entrySet()) {
+                                core.getMessage().sendMsg(sender, core.getLang().get("metric"), entry.getKey(), entry.getValue());
+                            }
+                            for (Map.Entry<String, Number> entry : core.getVaultAdapter().getMetrics().entrySet()) {
+                                core.getMessage().sendMsg(sender, core.getLang().get("metric"), entry.getKey(), entry.getValue());
+                            }
+                        }))
+                )
                 .addSubCommand(new Command<CommandSender>("exportBalTop")
                         .requires(new RequiresPermission<>("bvault.exportBalTop"))
                         .executor(((sender, args) -> {
@@ -10,19 +10,23 @@ import org.by1337.blib.nbt.DefaultNbtByteBuffer;
 import org.by1337.blib.nbt.NbtType;
 import org.by1337.blib.nbt.impl.CompoundTag;
 import org.by1337.bvault.core.BVaultCore;
+import org.by1337.bvault.core.db.BankScales;
+import org.by1337.bvault.core.db.Schema;
+import org.by1337.bvault.core.db.SqlDialect;
+import org.by1337.bvault.core.db.UuidBytes;
 import org.by1337.bvault.core.util.ConfigUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.UUID;
+import java.sql.*;
+import java.util.*;
+import java.util.logging.Logger;
 
 public class DbFix {
-    public static final int CURRENT_VERSION = 2;
+    public static final int CURRENT_VERSION = 3;
+    private static final int LOOKUP_SAMPLE = 1000;
+    private static final int COPY_BATCH = 1000;
     private YamlConfig cfg;
     private int version;
 
@@ -50,6 +54,264 @@ public class DbFix {
             context.set("integer-separator", ".");
             cfg.set("balTop.format", context);
         }
+        if (version < 3) {
+            cfg.set("dataBase.defaultScale", BankScales.DEFAULT_SCALE);
+        }
+    }
+
+    /**
+     * Finishes or undoes a migration that was interrupted. On MySQL every DDL statement commits on its own,
+     * so a crash can leave the new table next to the old one, or alone after the old one was dropped.
+     * Runs before the tables are created, an empty table created in place of a dropped one would hide the copy.
+     */
+    public static void resumeInterruptedMigration(Connection connection, Logger logger) throws SQLException {
+        resume(connection, "player_balances", "player_balances_v3", logger);
+        resume(connection, "banks", "banks_v4", logger);
+        resume(connection, "player_balances", "player_balances_v4", logger);
+    }
+
+    private static void resume(Connection connection, String table, String copy, Logger logger) throws SQLException {
+        if (!tableExists(connection, copy)) return;
+        try (Statement statement = connection.createStatement()) {
+            if (tableExists(connection, table)) {
+                // the copy may be incomplete, the migration starts over from the old table
+                logger.warning(String.format("Dropping %s left by an interrupted migration, it will be run again", copy));
+                statement.execute("DROP TABLE " + copy);
+            } else {
+                // the old table is only dropped once the copy is complete
+                logger.warning(String.format("Finishing an interrupted migration, %s becomes %s", copy, table));
+                statement.execute("ALTER TABLE " + copy + " RENAME TO " + table);
+            }
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, pattern(metaData, table), new String[]{"TABLE"})) {
+            return tables.next();
+        }
+    }
+
+    /**
+     * Escapes the name for the metadata lookups, which take LIKE patterns in which {@code _} matches any character.
+     */
+    private static String pattern(DatabaseMetaData metaData, String name) throws SQLException {
+        String escape = metaData.getSearchStringEscape();
+        if (escape == null || escape.isEmpty()) return name;
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+
+    /**
+     * Converts a player_balances table with DOUBLE balances into BIGINT minor units,
+     * saving the scale used for every bank. Does nothing if the table is already converted.
+     */
+    public static void migrateToFixedPoint(Connection connection, BankScales scales, Logger logger) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, "banks", "scale")) {
+            if (!columns.next()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE banks ADD COLUMN scale INTEGER");
+                }
+            }
+        }
+        String balanceType;
+        try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, pattern(metaData, "player_balances"), "balance")) {
+            balanceType = columns.next() ? columns.getString("TYPE_NAME") : null;
+        }
+        if (balanceType == null || !balanceType.toUpperCase().startsWith("DOUBLE")) return;
+
+        logger.info("Converting balances to fixed-point...");
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    INSERT INTO banks (bank_name)
+                    SELECT DISTINCT bank FROM player_balances
+                    WHERE bank NOT IN (SELECT bank_name FROM banks)
+                    """);
+            fillScales(connection, scales);
+            statement.execute("DROP TABLE IF EXISTS player_balances_v3");
+            statement.execute("""
+                    CREATE TABLE player_balances_v3 (
+                        uuid CHAR(36),
+                        nickname VARCHAR(36),
+                        bank VARCHAR(16),
+                        balance BIGINT,
+                        PRIMARY KEY (uuid, bank)
+                    )
+                    """);
+            int rows = 0;
+            try (PreparedStatement copy = connection.prepareStatement("""
+                    INSERT INTO player_balances_v3 (uuid, nickname, bank, balance)
+                    SELECT uuid, nickname, bank, ROUND(balance * ?)
+                    FROM player_balances
+                    WHERE bank = ?
+                    """);
+                 ResultSet resultSet = statement.executeQuery("SELECT bank_name, scale FROM banks")) {
+                while (resultSet.next()) {
+                    copy.setLong(1, Math.round(Math.pow(10, resultSet.getInt("scale"))));
+                    copy.setString(2, resultSet.getString("bank_name"));
+                    rows += copy.executeUpdate();
+                }
+            }
+            statement.execute("DROP TABLE player_balances");
+            statement.execute("ALTER TABLE player_balances_v3 RENAME TO player_balances");
+            connection.commit();
+            logger.info(String.format("Converted %s balances.", rows));
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Moves player_balances from text uuids and bank names to 16 byte uuids and bank ids,
+     * with the nicknames moved into players. Logs the size and the lookup time before and after.
+     * Does nothing if the table is already converted.
+     */
+    public static void migrateToCompactSchema(Connection connection, SqlDialect dialect, BankScales scales, Logger logger) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, pattern(metaData, "player_balances"), "bank")) {
+            if (!columns.next()) return;
+        }
+        logger.info("Converting balances to the compact schema...");
+        List<UUID> sample = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT DISTINCT uuid FROM player_balances LIMIT " + LOOKUP_SAMPLE)) {
+            while (resultSet.next()) {
+                sample.add(UUID.fromString(resultSet.getString("uuid")));
+            }
+        }
+        long sizeBefore = dialect.databaseSize(connection);
+        double lookupBefore = measureLookup(connection, "SELECT bank, balance, nickname FROM player_balances WHERE uuid = ?",
+                sample, (statement, uuid) -> statement.setString(1, uuid.toString()));
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        int rows = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS banks_v4");
+            statement.execute(Schema.banks(dialect, "banks_v4"));
+            statement.execute("INSERT INTO banks_v4 (bank_name, scale) SELECT bank_name, scale FROM banks");
+            statement.execute("""
+                    INSERT INTO banks_v4 (bank_name)
+                    SELECT DISTINCT bank FROM player_balances
+                    WHERE bank NOT IN (SELECT bank_name FROM banks_v4)
+                    """);
+            statement.execute("DROP TABLE banks");
+            statement.execute("ALTER TABLE banks_v4 RENAME TO banks");
+            fillScales(connection, scales);
+            Map<String, Integer> bankIds = new HashMap<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT bank_id, bank_name FROM banks")) {
+                while (resultSet.next()) {
+                    bankIds.put(resultSet.getString("bank_name"), resultSet.getInt("bank_id"));
+                }
+            }
+
+            statement.execute("DROP TABLE IF EXISTS player_balances_v4");
+            statement.execute(Schema.balances(dialect, "player_balances_v4"));
+            try (PreparedStatement players = connection.prepareStatement(dialect.upsertPlayer());
+                 PreparedStatement balances = connection.prepareStatement("""
+                         INSERT INTO player_balances_v4 (uuid, bank_id, balance)
+                         VALUES (?, ?, ?)
+                         """);
+                 Statement select = connection.createStatement()) {
+                select.setFetchSize(COPY_BATCH);
+                try (ResultSet resultSet = select.executeQuery("SELECT uuid, nickname, bank, balance FROM player_balances")) {
+                    while (resultSet.next()) {
+                        byte[] uuid = UuidBytes.toBytes(UUID.fromString(resultSet.getString("uuid")));
+                        players.setBytes(1, uuid);
+                        players.setString(2, resultSet.getString("nickname"));
+                        players.addBatch();
+                        balances.setBytes(1, uuid);
+                        balances.setInt(2, bankIds.get(resultSet.getString("bank")));
+                        balances.setLong(3, resultSet.getLong("balance"));
+                        balances.addBatch();
+                        if (++rows % COPY_BATCH == 0) {
+                            players.executeBatch();
+                            balances.executeBatch();
+                        }
+                    }
+                }
+                players.executeBatch();
+                balances.executeBatch();
+            }
+            // also drops the old indexes, idx_uuid duplicated the primary key
+            statement.execute("DROP TABLE player_balances");
+            statement.execute("ALTER TABLE player_balances_v4 RENAME TO player_balances");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        dialect.compact(connection);
+
+        long sizeAfter = dialect.databaseSize(connection);
+        double lookupAfter = measureLookup(connection, """
+                        SELECT b.bank_name, pb.balance, p.nickname
+                        FROM player_balances pb
+                        JOIN banks b ON b.bank_id = pb.bank_id
+                        LEFT JOIN players p ON p.uuid = pb.uuid
+                        WHERE pb.uuid = ?
+                        """,
+                sample, (statement, uuid) -> statement.setBytes(1, UuidBytes.toBytes(uuid)));
+        logger.info(String.format("Converted %s balances. Size: %s -> %s, lookup: %.1f us -> %.1f us (%s players sampled)",
+                rows, formatSize(sizeBefore), formatSize(sizeAfter), lookupBefore, lookupAfter, sample.size()));
+    }
+
+    private static void fillScales(Connection connection, BankScales scales) throws SQLException {
+        List<String> banks = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT bank_name, scale FROM banks")) {
+            while (resultSet.next()) {
+                String bank = resultSet.getString("bank_name");
+                int scale = resultSet.getInt("scale");
+                if (resultSet.wasNull()) {
+                    banks.add(bank);
+                } else {
+                    scales.setScale(bank, scale);
+                }
+            }
+        }
+        try (PreparedStatement update = connection.prepareStatement("UPDATE banks SET scale = ? WHERE bank_name = ?")) {
+            for (String bank : banks) {
+                update.setInt(1, scales.getScale(bank));
+                update.setString(2, bank);
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+    }
+
+    /**
+     * @return the average time of one lookup in microseconds.
+     */
+    private static double measureLookup(Connection connection, String sql, List<UUID> sample, LookupBinder binder) throws SQLException {
+        if (sample.isEmpty()) return 0;
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (UUID uuid : sample) {
+                binder.bind(statement, uuid);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getLong("balance");
+                    }
+                }
+            }
+        }
+        return (System.nanoTime() - start) / 1000D / sample.size();
+    }
+
+    private static String formatSize(long bytes) {
+        return bytes < 0 ? "unknown" : String.format("%.1f MB", bytes / 1024D / 1024D);
+    }
+
+    private interface LookupBinder {
+        void bind(PreparedStatement statement, UUID uuid) throws SQLException;
     }
 
     public void postEnabled(BVaultCore core) {
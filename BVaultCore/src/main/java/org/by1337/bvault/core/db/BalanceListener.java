@@ -0,0 +1,16 @@
+package org.by1337.bvault.core.db;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Told about every change of a balance of a loaded {@link User}, on the thread that made it.
+ * Changes of one balance may be reported out of order when they race, read the balance from the user
+ * when the latest value matters.
+ */
+@FunctionalInterface
+public interface BalanceListener {
+    BalanceListener NONE = (user, bank) -> {
+    };
+
+    void balanceChanged(@NotNull User user, @NotNull String bank);
+}
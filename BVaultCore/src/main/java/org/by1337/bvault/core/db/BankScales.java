@@ -0,0 +1,118 @@
+package org.by1337.bvault.core.db;
+
+import org.by1337.bvault.api.BankHandle;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Balances are kept as long minor units: with scale 2, 12.34 is stored as 1234.
+ * The scale of a bank is fixed when the bank is created and saved next to it in the database,
+ * the config only decides the scale of banks that do not exist yet.
+ */
+public class BankScales {
+    public static final int DEFAULT_SCALE = 2;
+    public static final int MAX_SCALE = 9;
+    private static final long[] POW10 = new long[MAX_SCALE + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final int defaultScale;
+    private final Map<String, Integer> configured;
+    private final Map<String, Integer> scales = new ConcurrentHashMap<>();
+    // scale + 1 by the id of the bank handle, 0 if not looked up yet
+    private volatile int[] byId = new int[0];
+
+    /**
+     * @param defaultScale the scale of new banks.
+     * @param configured   the scale of specific new banks.
+     */
+    public BankScales(int defaultScale, Map<String, Integer> configured) {
+        this.defaultScale = checkScale(defaultScale);
+        this.configured = Map.copyOf(configured);
+        this.configured.values().forEach(BankScales::checkScale);
+    }
+
+    public BankScales() {
+        this(DEFAULT_SCALE, Map.of());
+    }
+
+    public int getScale(@NotNull String bank) {
+        return scales.computeIfAbsent(bank, b -> configured.getOrDefault(b, defaultScale));
+    }
+
+    /**
+     * The scale of the bank by the id of its handle, without hashing the name.
+     */
+    public int getScale(@NotNull BankHandle bank) {
+        int[] cached = byId;
+        int id = bank.id();
+        if (id < cached.length && cached[id] != 0) {
+            return cached[id] - 1;
+        }
+        return cacheScale(bank);
+    }
+
+    private synchronized int cacheScale(BankHandle bank) {
+        int scale = getScale(bank.name());
+        int[] cached = byId;
+        if (bank.id() >= cached.length) {
+            cached = Arrays.copyOf(cached, Math.max(16, bank.id() * 2));
+        } else {
+            cached = cached.clone();
+        }
+        cached[bank.id()] = scale + 1;
+        byId = cached;
+        return scale;
+    }
+
+    /**
+     * Sets the scale an existing bank was created with.
+     */
+    public synchronized void setScale(@NotNull String bank, int scale) {
+        scales.put(bank, checkScale(scale));
+        byId = new int[0];
+    }
+
+    public long toMinor(@NotNull String bank, double amount) {
+        return toMinor(amount, getScale(bank));
+    }
+
+    public double toDouble(@NotNull String bank, long minor) {
+        return toDouble(minor, getScale(bank));
+    }
+
+    public long toMinor(@NotNull BankHandle bank, double amount) {
+        return toMinor(amount, getScale(bank));
+    }
+
+    public double toDouble(@NotNull BankHandle bank, long minor) {
+        return toDouble(minor, getScale(bank));
+    }
+
+    public static long toMinor(double amount, int scale) {
+        double scaled = amount * POW10[scale];
+        if (Double.isNaN(scaled) || scaled >= Long.MAX_VALUE || scaled <= Long.MIN_VALUE) {
+            throw new ArithmeticException(amount + " does not fit into a balance!");
+        }
+        return Math.round(scaled);
+    }
+
+    public static double toDouble(long minor, int scale) {
+        return scale == 0 ? minor : (double) minor / POW10[scale];
+    }
+
+    private static int checkScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale must be between 0 and " + MAX_SCALE + ", got " + scale);
+        }
+        return scale;
+    }
+}
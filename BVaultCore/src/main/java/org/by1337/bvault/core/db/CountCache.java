@@ -0,0 +1,80 @@
+package org.by1337.bvault.core.db;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Counts answered by the database, reused for {@code maxAge}.
+ * <p>
+ * Only one count per key runs at a time. While a stale count is being refreshed, the stale value is returned,
+ * so a caller only ever waits for the very first count of a key.
+ */
+public class CountCache<K> {
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxAgeNanos;
+
+    public CountCache(long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    public CompletableFuture<Long> get(@NotNull K key, @NotNull Supplier<CompletableFuture<Long>> loader) {
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+        Long value = entry.value;
+        if (value != null && System.nanoTime() - entry.loadedAt < maxAgeNanos) {
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<Long> load;
+        synchronized (entry) {
+            load = entry.loading;
+            if (load == null) {
+                load = loader.get();
+                entry.loading = load;
+                CompletableFuture<Long> started = load;
+                load.whenComplete((count, t) -> {
+                    synchronized (entry) {
+                        if (count != null) {
+                            entry.value = count;
+                            entry.loadedAt = System.nanoTime();
+                        }
+                        if (entry.loading == started) {
+                            entry.loading = null;
+                        }
+                    }
+                });
+            }
+        }
+        return value != null ? CompletableFuture.completedFuture(value) : load;
+    }
+
+    /**
+     * Removes the counts that are too old to be served and are not being refreshed.
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(e -> {
+            Entry entry = e.getValue();
+            synchronized (entry) {
+                return entry.loading == null && now - entry.loadedAt >= maxAgeNanos;
+            }
+        });
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private volatile Long value;
+        private volatile long loadedAt;
+        private CompletableFuture<Long> loading;
+    }
+}
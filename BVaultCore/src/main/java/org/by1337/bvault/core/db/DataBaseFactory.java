@@ -0,0 +1,37 @@
+package org.by1337.bvault.core.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.bukkit.plugin.Plugin;
+import org.by1337.blib.configuration.YamlContext;
+import org.by1337.bvault.core.top.BalTop;
+
+import java.io.File;
+
+public class DataBaseFactory {
+    public static SqlDatabase create(Plugin plugin, YamlContext dbCfg, BalTop balTop, BankScales scales) {
+        String type = dbCfg.getAsString("type", "sqlite");
+        HikariConfig hikariConfig = new HikariConfig();
+        switch (type.toLowerCase()) {
+            case "sqlite" -> {
+                hikariConfig.setJdbcUrl(String.format("jdbc:sqlite:%s", new File(plugin.getDataFolder(), "data2.db").getPath()));
+                return new SqliteDatabase(hikariConfig, plugin, balTop, scales, dbCfg);
+            }
+            case "mysql", "mariadb" -> {
+                hikariConfig.setPoolName("BVault-mysql");
+                hikariConfig.setMaximumPoolSize(dbCfg.getAsInteger("maxPoolSize", 5));
+                hikariConfig.setPassword(dbCfg.getAsString("password"));
+                hikariConfig.setUsername(dbCfg.getAsString("user"));
+                hikariConfig.setJdbcUrl(String.format("jdbc:mysql://%s:%s/%s",
+                        dbCfg.getAsString("host"),
+                        dbCfg.getAsString("port"),
+                        dbCfg.getAsString("dbName")
+                ));
+                // turns a batch of upserts into one multi-row statement
+                hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
+                hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+                return new MysqlDatabase(hikariConfig, plugin, balTop, scales, dbCfg);
+            }
+            default -> throw new IllegalArgumentException("Unknown database type " + type + "! Expected sqlite, mysql or mariadb.");
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package org.by1337.bvault.core.db;
 
+import org.by1337.bvault.api.BankStats;
 import org.by1337.bvault.core.db.User;
+import org.by1337.bvault.core.top.LeaderboardPage;
+import org.by1337.bvault.core.top.PageCursor;
 import org.by1337.bvault.core.top.TopInfo;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -13,8 +18,30 @@ import java.util.concurrent.CompletableFuture;
 public interface Database {
     CompletableFuture<@NotNull User> getUser(@NotNull UUID uuid);
 
+    /**
+     * @return the user if it is in memory, without loading it.
+     */
+    @Nullable
+    User getCachedUser(@NotNull UUID uuid);
+
+    /**
+     * Reads the balances of many players at once. Players in memory are answered from there,
+     * the others are read with a few queries instead of one load each.
+     *
+     * @param populateCache whether the players that are not in memory are loaded into the cache,
+     *                      otherwise only their balance in this bank is read.
+     * @return uuid to balance for every given player, 0 for players without an account.
+     */
+    CompletableFuture<@NotNull Map<@NotNull UUID, @NotNull Double>> getBalances(@NotNull String bank, @NotNull Collection<@NotNull UUID> uuids, boolean populateCache);
+
     void flushUser(@NotNull User user, @NotNull String bank);
 
+    /**
+     * Like {@link #flushUser(User, String)} for both users, but the two balances are written in the same transaction,
+     * so the database never has one side of the transfer without the other.
+     */
+    void flushTransfer(@NotNull User from, @NotNull User to, @NotNull String bank);
+
     void close();
 
     CompletableFuture<@Nullable Void> dropBalancesIn(@NotNull String bank);
@@ -24,4 +51,32 @@ public interface Database {
     Set<@NotNull String> getKnownBanks();
 
     CompletableFuture<@NotNull List<@NotNull TopInfo>> getTopByBank(@NotNull String bank, int limit);
+
+    /**
+     * @param after the last player of the previous page, or null for the first page.
+     * @return one page of the players of the bank, richest first.
+     */
+    CompletableFuture<@NotNull LeaderboardPage> getTopPage(@NotNull String bank, @Nullable PageCursor after, int limit);
+
+    /**
+     * @return the position of the player in the bank, 1 for the richest. Players with equal balances share a position.
+     */
+    CompletableFuture<@NotNull Long> getRank(@NotNull String bank, @NotNull UUID uuid);
+
+    /**
+     * @return the number of accounts in the bank.
+     */
+    CompletableFuture<@NotNull Long> countAccounts(@NotNull String bank);
+
+    /**
+     * @return the money supply and balance distribution of the bank, kept in memory.
+     */
+    @NotNull BankStats getStats(@NotNull String bank);
+
+    /**
+     * Registers a listener told about every change of a balance of a loaded user.
+     */
+    void addBalanceListener(@NotNull BalanceListener listener);
+
+    Map<@NotNull String, @NotNull Number> getMetrics();
 }
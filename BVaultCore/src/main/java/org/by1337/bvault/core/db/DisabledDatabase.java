@@ -1,9 +1,16 @@
 package org.by1337.bvault.core.db;
 
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.top.LeaderboardPage;
+import org.by1337.bvault.core.top.PageCursor;
 import org.by1337.bvault.core.top.TopInfo;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -16,11 +23,26 @@ public class DisabledDatabase implements Database {
         throw new UnsupportedOperationException("BVault is disabled!");
     }
 
+    @Override
+    public @Nullable User getCachedUser(@NotNull UUID uuid) {
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull String bank, @NotNull Collection<UUID> uuids, boolean populateCache) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
+
     @Override
     public void flushUser(@NotNull User user, @NotNull String bank) {
         throw new UnsupportedOperationException("BVault is disabled!");
     }
 
+    @Override
+    public void flushTransfer(@NotNull User from, @NotNull User to, @NotNull String bank) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
+
     @Override
     public void close() {
     }
@@ -45,5 +67,34 @@ public class DisabledDatabase implements Database {
         throw new UnsupportedOperationException("BVault is disabled!");
     }
 
-}
+    @Override
+    public CompletableFuture<LeaderboardPage> getTopPage(@NotNull String bank, @Nullable PageCursor after, int limit) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
+
+    @Override
+    public CompletableFuture<Long> getRank(@NotNull String bank, @NotNull UUID uuid) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
 
+    @Override
+    public CompletableFuture<Long> countAccounts(@NotNull String bank) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
+
+    @Override
+    public BankStats getStats(@NotNull String bank) {
+        throw new UnsupportedOperationException("BVault is disabled!");
+    }
+
+    @Override
+    public void addBalanceListener(@NotNull BalanceListener listener) {
+        // there are no users
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return Collections.emptyMap();
+    }
+
+}
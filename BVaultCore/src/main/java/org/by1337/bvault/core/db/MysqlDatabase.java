@@ -0,0 +1,23 @@
+package org.by1337.bvault.core.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.plugin.Plugin;
+import org.by1337.blib.configuration.YamlContext;
+import org.by1337.bvault.core.top.BalTop;
+
+/**
+ * MySQL or MariaDB. Reads and writes share one connection pool,
+ * the server takes care of concurrent access.
+ */
+public class MysqlDatabase extends SqlDatabase {
+
+    public MysqlDatabase(HikariConfig hikariConfig, Plugin plugin, BalTop balTop, BankScales scales, YamlContext dbCfg) {
+        this(new HikariDataSource(hikariConfig), plugin, balTop, scales, dbCfg);
+    }
+
+    private MysqlDatabase(HikariDataSource dataSource, Plugin plugin, BalTop balTop, BankScales scales, YamlContext dbCfg) {
+        // one connection stays with the writer thread, the rest serve reads
+        super(MysqlDialect.INSTANCE, dataSource, () -> dataSource, Math.max(1, dataSource.getMaximumPoolSize() - 1), plugin, balTop, scales, dbCfg);
+    }
+}
@@ -0,0 +1,98 @@
+package org.by1337.bvault.core.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MySQL and MariaDB.
+ */
+public class MysqlDialect implements SqlDialect {
+    public static final MysqlDialect INSTANCE = new MysqlDialect();
+
+    @Override
+    public String uuidType() {
+        return "BINARY(16)";
+    }
+
+    @Override
+    public String bankIdColumn() {
+        return "bank_id INT AUTO_INCREMENT PRIMARY KEY";
+    }
+
+    @Override
+    public String tableOptions() {
+        // InnoDB already clusters rows by the primary key
+        return "";
+    }
+
+    @Override
+    public String upsertBalance() {
+        return """
+                INSERT INTO player_balances (uuid, bank_id, balance)
+                VALUES (?, ?, ?)
+                ON DUPLICATE KEY UPDATE balance = VALUES(balance)
+                """;
+    }
+
+    @Override
+    public String upsertPlayer() {
+        return """
+                INSERT INTO players (uuid, nickname)
+                VALUES (?, ?)
+                ON DUPLICATE KEY UPDATE nickname = VALUES(nickname)
+                """;
+    }
+
+    @Override
+    public String insertBankIfAbsent() {
+        return """
+                INSERT IGNORE INTO banks (bank_name, scale)
+                VALUES (?, ?)
+                """;
+    }
+
+    @Override
+    public void createIndex(Connection connection, String table, String name, String columns) throws SQLException {
+        // MySQL has no CREATE INDEX IF NOT EXISTS
+        try (ResultSet resultSet = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+            while (resultSet.next()) {
+                if (name.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) return;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(String.format("CREATE INDEX %s ON %s(%s)", name, table, columns));
+        }
+    }
+
+    @Override
+    public long databaseSize(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("""
+                     SELECT SUM(data_length + index_length)
+                     FROM information_schema.tables
+                     WHERE table_schema = DATABASE()
+                     """)) {
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        } catch (SQLException e) {
+            // not every MySQL compatible database has these columns
+            return -1;
+        }
+    }
+
+    @Override
+    public void compact(Connection connection) {
+        // the migration copies into a new table, which InnoDB already stores without the freed space
+    }
+
+    @Override
+    public void streamResults(Statement statement) throws SQLException {
+        // Connector/J streams only with this marker, other drivers such as MariaDB honour a real fetch size
+        if (statement.getConnection().getMetaData().getDriverName().contains("MySQL Connector")) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            statement.setFetchSize(1000);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.by1337.bvault.core.db;
+
+/**
+ * Table definitions, shared with the migrations in {@link org.by1337.bvault.core.datafix.DbFix}.
+ * <p>
+ * Balances are keyed by a 16 byte uuid and the integer id of the bank, nicknames live once per player
+ * in {@code players}. The top index (bank_id, balance DESC) also holds the primary key, so the top
+ * is read from the index alone and only the nicknames are looked up.
+ */
+public final class Schema {
+    private Schema() {
+    }
+
+    public static String banks(SqlDialect dialect, String table) {
+        return String.format("""
+                CREATE TABLE IF NOT EXISTS %s (
+                    %s,
+                    bank_name VARCHAR(16) NOT NULL UNIQUE,
+                    scale INTEGER
+                )
+                """, table, dialect.bankIdColumn());
+    }
+
+    public static String players(SqlDialect dialect) {
+        return String.format("""
+                CREATE TABLE IF NOT EXISTS players (
+                    uuid %s NOT NULL PRIMARY KEY,
+                    nickname VARCHAR(36)
+                )%s
+                """, dialect.uuidType(), dialect.tableOptions());
+    }
+
+    public static String balances(SqlDialect dialect, String table) {
+        return String.format("""
+                CREATE TABLE IF NOT EXISTS %s (
+                    uuid %s NOT NULL,
+                    bank_id INTEGER NOT NULL,
+                    balance BIGINT NOT NULL,
+                    PRIMARY KEY (uuid, bank_id)
+                )%s
+                """, table, dialect.uuidType(), dialect.tableOptions());
+    }
+}
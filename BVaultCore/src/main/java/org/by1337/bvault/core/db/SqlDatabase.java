@@ -0,0 +1,985 @@
+package org.by1337.bvault.core.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.by1337.blib.configuration.YamlContext;
+import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.datafix.DbFix;
+import org.by1337.bvault.core.stats.BankStatistics;
+import org.by1337.bvault.core.top.BalTop;
+import org.by1337.bvault.core.top.LeaderboardPage;
+import org.by1337.bvault.core.top.PageCursor;
+import org.by1337.bvault.core.top.RankedIndex;
+import org.by1337.bvault.core.top.TopInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Shared logic of the SQL backends. Writes go through a single writer thread and the
+ * {@link WriteBehindQueue}, reads go through the read data source on the IO executor.
+ */
+public abstract class SqlDatabase implements Database, Listener {
+    // users per IN (...) query, below the 999 parameters of older SQLite versions
+    protected static final int IN_CHUNK = 500;
+    protected final SqlDialect dialect;
+    // All writes are funneled through writeExecutor, so one connection is enough for SQLite
+    // and keeps balance batches ordered for every backend.
+    protected final HikariDataSource writeDataSource;
+    // May be the same pool as writeDataSource when the backend has no separate read-only connections.
+    protected final HikariDataSource readDataSource;
+    protected final ThreadFactory ioThreadFactory;
+    protected final ExecutorService ioExecutor;
+    protected final ScheduledExecutorService writeExecutor;
+    protected final WriteBehindQueue writeBehindQueue;
+    protected final BalTop balTop;
+    protected final BankScales scales;
+    protected final UserCache cache;
+    protected final Plugin plugin;
+    protected final Set<String> knownBanks;
+    // Loads in progress, concurrent misses for the same uuid share one load and one User instance.
+    protected final Map<UUID, CompletableFuture<User>> loading = new ConcurrentHashMap<>();
+    protected final LongAdder loads = new LongAdder();
+    protected final LongAdder coalescedLoads = new LongAdder();
+    // players read by getBalances that were not in memory
+    protected final LongAdder bulkReads = new LongAdder();
+    protected final LongAdder transfers = new LongAdder();
+    protected final long preLoginTimeout;
+    // bank_id of every bank seen so far, resolved on the writer thread
+    protected final Map<String, Integer> bankIds = new ConcurrentHashMap<>();
+    // players outside the top list are ranked by a COUNT(*) over idx_bank_balance, reused for rankStaleness
+    protected final CountCache<RankKey> ranks;
+    protected final CountCache<String> accountCounts;
+    protected final LongAdder rankQueries = new LongAdder();
+    // when every bank was last compared with the database, the least recently compared clean banks go first
+    protected final Map<String, Long> reconciledAt = new ConcurrentHashMap<>();
+    protected final AtomicBoolean reconciling = new AtomicBoolean();
+    protected final int reconcileBudget;
+    protected final LongAdder reconciledTops = new LongAdder();
+    // recently read leaderboard pages beyond the top list, a page being read is shared by everyone asking for it
+    protected final Cache<PageKey, CompletableFuture<LeaderboardPage>> pages;
+    // fed by every flush, rebuilt from player_balances every statsRebuildInterval to undo any drift
+    protected final BankStatistics stats;
+    protected final LongAdder statsRebuilds = new LongAdder();
+    protected volatile long lastStatsRebuildMillis;
+    protected final List<BalanceListener> balanceListeners = new CopyOnWriteArrayList<>();
+    // handed to every user, so listeners added later also hear users loaded before
+    private final BalanceListener balanceDispatcher = (user, bank) -> {
+        for (BalanceListener listener : balanceListeners) {
+            listener.balanceChanged(user, bank);
+        }
+    };
+
+    /**
+     * @param readDataSource opened after the schema has been created.
+     * @param readers        the number of threads running reads.
+     */
+    protected SqlDatabase(SqlDialect dialect, HikariDataSource writeDataSource, Supplier<HikariDataSource> readDataSource,
+                          int readers, Plugin plugin, BalTop balTop, BankScales scales, YamlContext dbCfg) {
+        this.dialect = dialect;
+        this.writeDataSource = writeDataSource;
+        this.plugin = plugin;
+        this.balTop = balTop;
+        this.scales = scales;
+        stats = new BankStatistics(scales);
+        writeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("BVault DB writer").build());
+        writeBehindQueue = new WriteBehindQueue(this::writeBalances, writeExecutor, dbCfg.getAsInteger("writeBehind.batchSize", 500), plugin.getLogger());
+        long flushInterval = dbCfg.getAsInteger("writeBehind.interval", 1000);
+        writeExecutor.scheduleWithFixedDelay(writeBehindQueue::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        createTableIfNotExist();
+        this.readDataSource = readDataSource.get();
+
+        ioThreadFactory = new ThreadFactoryBuilder().setNameFormat("BVault IO #%d").build();
+        // core == max, otherwise a pool with an unbounded queue never grows past one thread
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(readers, readers,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                ioThreadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        ioExecutor = executor;
+        cache = new UserCache(
+                dbCfg.getAsInteger("cache.maxOfflineUsers", 10_000),
+                dbCfg.getAsInteger("cache.offlineTtl", 300), TimeUnit.SECONDS,
+                writeExecutor
+        );
+        long rankStaleness = dbCfg.getAsInteger("rankStaleness", 10);
+        ranks = new CountCache<>(rankStaleness, TimeUnit.SECONDS);
+        accountCounts = new CountCache<>(rankStaleness, TimeUnit.SECONDS);
+        writeExecutor.scheduleWithFixedDelay(() -> {
+            cache.cleanUp();
+            ranks.cleanUp();
+            accountCounts.cleanUp();
+        }, 10, 10, TimeUnit.SECONDS);
+        preLoginTimeout = dbCfg.getAsInteger("preLoginTimeout", 5000);
+        knownBanks = new HashSet<>(loadBanks());
+        updateBanks(BEconomy.DEFAULT_BANK);
+        pages = CacheBuilder.newBuilder()
+                .maximumSize(dbCfg.getAsInteger("pageCache.size", 1000))
+                .expireAfterWrite(dbCfg.getAsInteger("pageCache.time", 10), TimeUnit.SECONDS)
+                .build();
+        reconcileBudget = Math.max(1, dbCfg.getAsInteger("balTopReconcile.banksPerRun", 4));
+        long reconcileInterval = dbCfg.getAsInteger("balTopReconcile.interval", 30);
+        // the first run reads every top that was not restored from the saved file, those are caught up by the later runs
+        reconcileTops(Integer.MAX_VALUE, bank -> !balTop.isRestored(bank));
+        writeExecutor.scheduleWithFixedDelay(() -> reconcileTops(reconcileBudget, bank -> true), reconcileInterval, reconcileInterval, TimeUnit.SECONDS);
+        long statsRebuildInterval = dbCfg.getAsInteger("statsRebuildInterval", 3600);
+        // counted once on startup, the scan runs on the read pool and the write thread only flushes an empty queue
+        rebuildStats();
+        writeExecutor.scheduleWithFixedDelay(this::rebuildStats, statsRebuildInterval, statsRebuildInterval, TimeUnit.SECONDS);
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        List<UUID> online = new ArrayList<>();
+        for (Player onlinePlayer : plugin.getServer().getOnlinePlayers()) {
+            cache.setOnline(onlinePlayer.getUniqueId(), true);
+            online.add(onlinePlayer.getUniqueId());
+        }
+        getUsers(online).values().forEach(future -> future.whenComplete((u, t) -> {
+            if (t != null) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to get user!", t);
+            }
+        }));
+    }
+
+    @Override
+    public CompletableFuture<User> getUser(@NotNull UUID uuid) {
+        var user = cache.get(uuid);
+        if (user != null) return CompletableFuture.completedFuture(user);
+        return getUsers(List.of(uuid)).get(uuid);
+    }
+
+    @Override
+    public @Nullable User getCachedUser(@NotNull UUID uuid) {
+        return cache.get(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull String bank, @NotNull Collection<UUID> uuids, boolean populateCache) {
+        BankHandle handle = BankHandle.of(bank);
+        Map<UUID, Double> result = new HashMap<>();
+        Set<UUID> misses = new LinkedHashSet<>();
+        for (UUID uuid : uuids) {
+            // a read that does not load the users does not count as an access either
+            User user = populateCache ? cache.get(uuid) : cache.peek(uuid);
+            if (user != null) {
+                result.put(uuid, user.getBalance(handle));
+            } else {
+                misses.add(uuid);
+            }
+        }
+        if (misses.isEmpty()) return CompletableFuture.completedFuture(result);
+        bulkReads.add(misses.size());
+        if (populateCache) {
+            Map<UUID, CompletableFuture<User>> users = getUsers(misses);
+            return CompletableFuture.allOf(users.values().toArray(new CompletableFuture[0])).thenApply(v -> {
+                users.forEach((uuid, future) -> result.put(uuid, future.join().getBalance(handle)));
+                return result;
+            });
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Map<UUID, Long> balances = readBalances(bank, misses);
+            for (UUID uuid : misses) {
+                // a user loaded meanwhile may have changed since the row was read
+                User user = cache.peek(uuid);
+                result.put(uuid, user != null ? user.getBalance(handle) : scales.toDouble(handle, balances.getOrDefault(uuid, 0L)));
+            }
+            return result;
+        }, ioExecutor);
+    }
+
+    /**
+     * Reads the balances of the players in one bank, with one query per {@value #IN_CHUNK} players.
+     *
+     * @return uuid to balance in minor units, only for the players that have one.
+     */
+    private Map<UUID, Long> readBalances(String bank, Set<UUID> uuids) {
+        // taken before the read, the balances in the queue may not have reached the database yet
+        Map<UUID, Long> pending = writeBehindQueue.getPending(bank, uuids);
+        Map<UUID, Long> result = new HashMap<>();
+        List<UUID> list = new ArrayList<>(uuids);
+        try (Connection connection = readDataSource.getConnection()) {
+            for (int from = 0; from < list.size(); from += IN_CHUNK) {
+                List<UUID> chunk = list.subList(from, Math.min(list.size(), from + IN_CHUNK));
+                try (PreparedStatement statement = connection.prepareStatement(String.format("""
+                        SELECT uuid, balance
+                        FROM player_balances
+                        WHERE bank_id = (SELECT bank_id FROM banks WHERE bank_name = ?) AND uuid IN (%s)
+                        """, placeholders(chunk.size())))
+                ) {
+                    statement.setString(1, bank);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        statement.setBytes(i + 2, UuidBytes.toBytes(chunk.get(i)));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            result.put(UuidBytes.fromBytes(resultSet.getBytes("uuid")), resultSet.getLong("balance"));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        result.putAll(pending);
+        return result;
+    }
+
+    /**
+     * Loads every given user that is not cached, with one query per {@value #IN_CHUNK} users.
+     * A user that is already being loaded shares that load instead.
+     */
+    private Map<UUID, CompletableFuture<User>> getUsers(Collection<UUID> uuids) {
+        Map<UUID, CompletableFuture<User>> result = new HashMap<>();
+        Map<UUID, CompletableFuture<User>> toLoad = new HashMap<>();
+        for (UUID uuid : uuids) {
+            CompletableFuture<User> future = new CompletableFuture<>();
+            CompletableFuture<User> inFlight = loading.putIfAbsent(uuid, future);
+            if (inFlight != null) {
+                coalescedLoads.increment();
+                result.put(uuid, inFlight);
+                continue;
+            }
+            result.put(uuid, future);
+            // the previous load may have been published between the cache check and putIfAbsent
+            User user = cache.peek(uuid);
+            if (user != null) {
+                loading.remove(uuid, future);
+                future.complete(user);
+            } else {
+                toLoad.put(uuid, future);
+            }
+        }
+        if (toLoad.isEmpty()) return result;
+        loads.add(toLoad.size());
+        try {
+            ioExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    Map<UUID, User> users = loadUsers(toLoad.keySet());
+                    cache.recordLoad(System.nanoTime() - start);
+                    toLoad.forEach((uuid, future) -> future.complete(users.get(uuid)));
+                } catch (Throwable t) {
+                    toLoad.values().forEach(future -> future.completeExceptionally(t));
+                } finally {
+                    // removed only after loadUsers has put the users into the cache
+                    toLoad.forEach(loading::remove);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            toLoad.forEach(loading::remove);
+            toLoad.values().forEach(future -> future.completeExceptionally(e));
+        }
+        return result;
+    }
+
+    @Override
+    public void flushUser(@NotNull User user, @NotNull String bank) {
+        updateBanks(bank);
+        long balance = user.getMinorBalance(bank);
+        balTop.updateBalance(user.getUuid(), balance, bank, user.getNickName());
+        writeBehindQueue.offer(user.getUuid(), bank, user.getNickName(), balance);
+        // after the offer, so a rebuild that flushes the queue before reading sees every balance it was not told about
+        stats.update(bank, user.getUuid(), user.exchangeFlushedBalance(bank, balance), balance);
+    }
+
+    @Override
+    public void flushTransfer(@NotNull User from, @NotNull User to, @NotNull String bank) {
+        updateBanks(bank);
+        long fromBalance = from.getMinorBalance(bank);
+        long toBalance = to.getMinorBalance(bank);
+        balTop.updateBalance(from.getUuid(), fromBalance, bank, from.getNickName());
+        balTop.updateBalance(to.getUuid(), toBalance, bank, to.getNickName());
+        writeBehindQueue.offerAll(List.of(
+                new WriteBehindQueue.Entry(from.getUuid(), bank, from.getNickName(), fromBalance),
+                new WriteBehindQueue.Entry(to.getUuid(), bank, to.getNickName(), toBalance)
+        ));
+        stats.update(bank, from.getUuid(), from.exchangeFlushedBalance(bank, fromBalance), fromBalance);
+        stats.update(bank, to.getUuid(), to.exchangeFlushedBalance(bank, toBalance), toBalance);
+        transfers.increment();
+    }
+
+    private void writeBalances(List<WriteBehindQueue.Entry> batch) throws SQLException {
+        try (Connection connection = writeDataSource.getConnection()) {
+            // resolved before the transaction, a rollback must not undo a cached bank id
+            Map<String, Integer> ids = new HashMap<>();
+            for (WriteBehindQueue.Entry entry : batch) {
+                if (!ids.containsKey(entry.bank())) {
+                    ids.put(entry.bank(), bankId(connection, entry.bank()));
+                }
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement players = connection.prepareStatement(dialect.upsertPlayer());
+                 PreparedStatement balances = connection.prepareStatement(dialect.upsertBalance())) {
+                Set<UUID> seen = new HashSet<>();
+                for (WriteBehindQueue.Entry entry : batch) {
+                    byte[] uuid = UuidBytes.toBytes(entry.uuid());
+                    if (seen.add(entry.uuid())) {
+                        players.setBytes(1, uuid);
+                        players.setString(2, entry.nickName());
+                        players.addBatch();
+                    }
+                    balances.setBytes(1, uuid);
+                    balances.setInt(2, ids.get(entry.bank()));
+                    balances.setLong(3, entry.balance());
+                    balances.addBatch();
+                }
+                players.executeBatch();
+                balances.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Reads the users and puts them into the cache. Not private so that tests can hold a load.
+     *
+     * @throws RuntimeException if the database could not be read, then none of the users is cached.
+     */
+    Map<UUID, User> loadUsers(Collection<UUID> uuids) {
+        Map<UUID, Map<String, Long>> balances = new HashMap<>();
+        Map<UUID, String> nicknames = new HashMap<>();
+        // taken before the read, the balances in the queue may not have reached the database yet
+        Map<UUID, Map<String, Long>> pending = new HashMap<>();
+        for (UUID uuid : uuids) {
+            balances.put(uuid, new HashMap<>());
+            pending.put(uuid, writeBehindQueue.getPending(uuid));
+        }
+        List<UUID> list = new ArrayList<>(uuids);
+        try (Connection connection = readDataSource.getConnection()) {
+            for (int from = 0; from < list.size(); from += IN_CHUNK) {
+                List<UUID> chunk = list.subList(from, Math.min(list.size(), from + IN_CHUNK));
+                try (PreparedStatement statement = connection.prepareStatement(String.format("""
+                        SELECT pb.uuid, b.bank_name, pb.balance
+                        FROM player_balances pb
+                        JOIN banks b ON b.bank_id = pb.bank_id
+                        WHERE pb.uuid IN (%s)
+                        """, placeholders(chunk.size())));
+                     PreparedStatement nameStatement = connection.prepareStatement(String.format(
+                             "SELECT uuid, nickname FROM players WHERE uuid IN (%s)", placeholders(chunk.size())))
+                ) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        byte[] id = UuidBytes.toBytes(chunk.get(i));
+                        statement.setBytes(i + 1, id);
+                        nameStatement.setBytes(i + 1, id);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            balances.get(UuidBytes.fromBytes(resultSet.getBytes("uuid"))).put(
+                                    resultSet.getString("bank_name"),
+                                    resultSet.getLong("balance")
+                            );
+                        }
+                    }
+                    try (ResultSet resultSet = nameStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            nicknames.put(UuidBytes.fromBytes(resultSet.getBytes("uuid")), resultSet.getString("nickname"));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            // no empty users in the cache, their first flush would overwrite the real balances
+            throw new RuntimeException(e);
+        }
+        Map<UUID, User> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            Map<String, Long> userBalances = balances.get(uuid);
+            userBalances.putAll(pending.get(uuid));
+            var user = new User(userBalances, uuid, this, scales, nicknames.get(uuid), balanceDispatcher);
+            synchronized (knownBanks) {
+                knownBanks.addAll(user.getExistedBanks());
+            }
+            Player player = plugin.getServer().getPlayer(uuid);
+            if (player != null) {
+                checkNickName(user, player.getName());
+            }
+            cache.put(user);
+            result.put(uuid, user);
+        }
+        return result;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private void checkNickName(User user, String name) {
+        if (!user.getNickName().equals(name)) {
+            user.setName(name);
+            updateNickName(user.getUuid(), name);
+        }
+    }
+
+    private void updateNickName(UUID uuid, String newName) {
+        try {
+            writeExecutor.execute(() -> {
+                try (Connection connection = writeDataSource.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(dialect.upsertPlayer())
+                ) {
+                    statement.setBytes(1, UuidBytes.toBytes(uuid));
+                    statement.setString(2, newName);
+                    statement.execute();
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to update uuid nick name", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closing, the name is updated again on the next login
+        }
+    }
+
+    /**
+     * Loads the user on the async login thread, so that the cache is warm before the join event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        cache.setOnline(event.getUniqueId(), true);
+        try {
+            User user = getUser(event.getUniqueId()).get(preLoginTimeout, TimeUnit.MILLISECONDS);
+            checkNickName(user, event.getName());
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning(String.format("Loading %s took longer than %s ms, the join continues without it", event.getName(), preLoginTimeout));
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load user", e.getCause());
+            // an account that could not be read must not be played with, it would start from zero
+            cache.setOnline(event.getUniqueId(), false);
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, "Failed to load your balance, please try again later");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            // denied after the pre login, nobody will quit to unpin it
+            cache.setOnline(event.getPlayer().getUniqueId(), false);
+        }
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent joinEvent) {
+        cache.setOnline(joinEvent.getPlayer().getUniqueId(), true);
+        getUser(joinEvent.getPlayer().getUniqueId()).whenComplete((u, t) -> {
+            if (t != null) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to load user", t);
+            }
+        });
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent playerQuitEvent) {
+        cache.setOnline(playerQuitEvent.getPlayer().getUniqueId(), false);
+    }
+
+    @Override
+    public void close() {
+        AsyncPlayerPreLoginEvent.getHandlerList().unregister(this);
+        PlayerLoginEvent.getHandlerList().unregister(this);
+        PlayerJoinEvent.getHandlerList().unregister(this);
+        PlayerQuitEvent.getHandlerList().unregister(this);
+        writeExecutor.shutdown();
+        try {
+            if (!writeExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for the writer thread!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeBehindQueue.flush();
+        if (writeBehindQueue.getQueueDepth() != 0) {
+            plugin.getLogger().severe(String.format("%s balances were not saved!", writeBehindQueue.getQueueDepth()));
+        }
+        ioExecutor.shutdown();
+        try {
+            // reads and reconciles still running would fail on the closed pools
+            if (!ioExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for the database reads!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (readDataSource != writeDataSource) {
+            readDataSource.close();
+        }
+        writeDataSource.close();
+        cache.clear();
+    }
+
+    @Override
+    public CompletableFuture<Void> dropBalancesIn(@Nullable String bank) {
+        // runs on the writer thread so that no pending batch can write the dropped balances back
+        return CompletableFuture.runAsync(() -> {
+            writeBehindQueue.discard(bank);
+            try (Connection connection = writeDataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                         bank != null ?
+                                 "DELETE FROM player_balances WHERE bank_id IN (SELECT bank_id FROM banks WHERE bank_name = ?)" :
+                                 "DELETE FROM player_balances"
+                 )
+            ) {
+                if (bank != null) {
+                    statement.setString(1, bank);
+                }
+                statement.execute();
+                ranks.clear();
+                accountCounts.clear();
+                pages.invalidateAll();
+                stats.clear(bank);
+                for (User value : cache.values()) {
+                    value.dropBalances(bank);
+                }
+                if (bank == null) {
+                    balTop.clear();
+                } else {
+                    balTop.clearBalancesIn(bank);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, writeExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> dropBalances() {
+        return dropBalancesIn(null);
+    }
+
+    @Override
+    public Set<String> getKnownBanks() {
+        synchronized (knownBanks) {
+            return Collections.unmodifiableSet(knownBanks);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<TopInfo>> getTopByBank(@NotNull String bank, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<RankedIndex.Entry> top = readTop(bank, limit);
+            List<TopInfo> result = new ArrayList<>(limit);
+            int pos = 0;
+            for (RankedIndex.Entry entry : top) {
+                result.add(new TopInfo(
+                        entry.uuid(),
+                        entry.name(),
+                        scales.toDouble(bank, entry.balance()),
+                        pos++
+                ));
+            }
+            for (; pos < limit; pos++) {
+                result.add(TopInfo.EMPTY);
+            }
+            return result;
+        }, ioExecutor);
+    }
+
+    /**
+     * @return the richest players of the bank as stored, balances in minor units.
+     */
+    private List<RankedIndex.Entry> readTop(String bank, int limit) {
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("""
+                     SELECT p.nickname, pb.balance, pb.uuid
+                     FROM player_balances pb
+                     LEFT JOIN players p ON p.uuid = pb.uuid
+                     WHERE pb.bank_id = (SELECT bank_id FROM banks WHERE bank_name = ?)
+                     ORDER BY pb.balance DESC, pb.uuid
+                     LIMIT ?
+                     """)
+        ) {
+            statement.setString(1, bank);
+            statement.setInt(2, limit);
+            statement.setFetchSize(Math.min(limit, 500));
+            List<RankedIndex.Entry> result = new ArrayList<>(Math.min(limit, 1000));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(new RankedIndex.Entry(
+                            UuidBytes.fromBytes(resultSet.getBytes("uuid")),
+                            resultSet.getString("nickname"),
+                            resultSet.getLong("balance")
+                    ));
+                }
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<LeaderboardPage> getTopPage(@NotNull String bank, @Nullable PageCursor after, int limit) {
+        LeaderboardPage page = balTop.getPage(bank, after, limit);
+        if (page != null) {
+            return CompletableFuture.completedFuture(page);
+        }
+        PageKey key = new PageKey(bank, after, limit);
+        CompletableFuture<LeaderboardPage> future = pages.asMap().computeIfAbsent(key,
+                k -> CompletableFuture.supplyAsync(() -> readPage(bank, after, limit), ioExecutor));
+        future.whenComplete((p, t) -> {
+            if (t != null) {
+                pages.asMap().remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Seeks to the cursor on idx_bank_balance, so deep pages do not skip rows like an OFFSET would.
+     * The index ends with the uuid of the primary key, which breaks ties in the same order as {@link RankedIndex}.
+     */
+    private LeaderboardPage readPage(String bank, @Nullable PageCursor after, int limit) {
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(String.format("""
+                     SELECT p.nickname, pb.balance, pb.uuid
+                     FROM player_balances pb
+                     LEFT JOIN players p ON p.uuid = pb.uuid
+                     WHERE pb.bank_id = (SELECT bank_id FROM banks WHERE bank_name = ?)
+                     %s
+                     ORDER BY pb.balance DESC, pb.uuid
+                     LIMIT ?
+                     """, after == null ? "" : "AND pb.balance <= ? AND (pb.balance < ? OR pb.uuid > ?)"))
+        ) {
+            int i = 1;
+            statement.setString(i++, bank);
+            if (after != null) {
+                statement.setLong(i++, after.balance());
+                statement.setLong(i++, after.balance());
+                statement.setBytes(i++, UuidBytes.toBytes(after.uuid()));
+            }
+            // one more row tells whether there is a next page
+            statement.setInt(i, limit + 1);
+            int pos = after == null ? 0 : after.pos() + 1;
+            List<TopInfo> entries = new ArrayList<>(limit);
+            long lastBalance = 0;
+            boolean more = false;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (entries.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    lastBalance = resultSet.getLong("balance");
+                    entries.add(new TopInfo(
+                            UuidBytes.fromBytes(resultSet.getBytes("uuid")),
+                            resultSet.getString("nickname"),
+                            scales.toDouble(bank, lastBalance),
+                            pos++
+                    ));
+                }
+            }
+            PageCursor next = null;
+            if (more) {
+                TopInfo last = entries.get(entries.size() - 1);
+                next = new PageCursor(last.pos(), lastBalance, last.uuid());
+            }
+            return new LeaderboardPage(entries, next);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compares up to {@code budget} top lists with the database on the IO executor, dirty ones first,
+     * then the ones compared least recently. Only one run at a time.
+     */
+    private void reconcileTops(int budget, Predicate<String> filter) {
+        if (!reconciling.compareAndSet(false, true)) return;
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    List<String> banks;
+                    synchronized (knownBanks) {
+                        banks = new ArrayList<>(knownBanks);
+                    }
+                    banks.removeIf(filter.negate());
+                    banks.sort(Comparator.<String, Boolean>comparing(bank -> !balTop.isDirty(bank))
+                            .thenComparingLong(bank -> reconciledAt.getOrDefault(bank, 0L)));
+                    for (int i = 0; i < banks.size() && i < budget; i++) {
+                        String bank = banks.get(i);
+                        try {
+                            reconcileTop(bank);
+                        } catch (Throwable t) {
+                            plugin.getLogger().log(Level.SEVERE, "Failed to get top!", t);
+                        }
+                    }
+                } finally {
+                    reconciling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reconciling.set(false);
+        }
+    }
+
+    private void reconcileTop(String bank) {
+        List<RankedIndex.Entry> slice = readTop(bank, balTop.getTopSize());
+        BankHandle handle = BankHandle.of(bank);
+        // the queue is scanned once for every player the merge may ask about, before the top is locked
+        Set<UUID> uuids = balTop.getListed(bank);
+        for (RankedIndex.Entry entry : slice) {
+            uuids.add(entry.uuid());
+        }
+        Map<UUID, Long> pending = writeBehindQueue.getPending(bank, uuids);
+        balTop.reconcile(bank, slice, uuid -> {
+            // a cached user is the newest balance, then whatever waits in the write-behind queue
+            User user = cache.peek(uuid);
+            if (user != null) {
+                return user.findMinorBalance(handle);
+            }
+            // listed after the scan, rare enough to be looked up alone
+            return uuids.contains(uuid) ? pending.get(uuid) : writeBehindQueue.getPending(uuid).get(bank);
+        });
+        reconciledAt.put(bank, System.currentTimeMillis());
+        reconciledTops.increment();
+    }
+
+    @Override
+    public CompletableFuture<Long> getRank(@NotNull String bank, @NotNull UUID uuid) {
+        // only the balance is needed, so a player who is not cached is read like in getBalances instead of loaded
+        User cached = cache.peek(uuid);
+        CompletableFuture<Long> read = cached != null ?
+                CompletableFuture.completedFuture(cached.getMinorBalance(bank)) :
+                CompletableFuture.supplyAsync(() -> {
+                    long stored = readBalances(bank, Set.of(uuid)).getOrDefault(uuid, 0L);
+                    // a user loaded meanwhile may have changed since the row was read
+                    User user = cache.peek(uuid);
+                    return user != null ? user.getMinorBalance(bank) : stored;
+                }, ioExecutor);
+        return read.thenCompose(balance -> {
+            int above = balTop.countAbove(bank, balance);
+            if (above >= 0) {
+                return CompletableFuture.completedFuture(above + 1L);
+            }
+            return ranks.get(new RankKey(bank, uuid), () -> count(
+                    "SELECT COUNT(*) FROM player_balances WHERE bank_id = (SELECT bank_id FROM banks WHERE bank_name = ?) AND balance > ?",
+                    bank, balance
+            )).thenApply(count -> count + 1);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> countAccounts(@NotNull String bank) {
+        return accountCounts.get(bank, () -> count(
+                "SELECT COUNT(*) FROM player_balances WHERE bank_id = (SELECT bank_id FROM banks WHERE bank_name = ?)",
+                bank, null
+        ));
+    }
+
+    private CompletableFuture<Long> count(String sql, String bank, @Nullable Long balance) {
+        return CompletableFuture.supplyAsync(() -> {
+            rankQueries.increment();
+            try (Connection connection = readDataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)
+            ) {
+                statement.setString(1, bank);
+                if (balance != null) {
+                    statement.setLong(2, balance);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, ioExecutor);
+    }
+
+    @Override
+    public BankStats getStats(@NotNull String bank) {
+        return stats.getStats(bank);
+    }
+
+    /**
+     * Collects the statistics anew from a single pass over player_balances, read as a stream in primary key order.
+     * Balances flushed meanwhile are applied on top, see {@link BankStatistics#startRebuild()}.
+     *
+     * @return completes with false if another rebuild was running or the balances were dropped meanwhile.
+     */
+    CompletableFuture<Boolean> rebuildStats() {
+        BankStatistics.Rebuild rebuild = stats.startRebuild();
+        if (rebuild == null) return CompletableFuture.completedFuture(false);
+        // everything flushed before the rebuild started must be in the database when it is read
+        return CompletableFuture.runAsync(writeBehindQueue::flush, writeExecutor)
+                .thenApplyAsync(v -> scanBalances(rebuild), ioExecutor)
+                .whenComplete((ok, t) -> {
+                    if (t != null) {
+                        rebuild.abort();
+                        plugin.getLogger().log(Level.SEVERE, "Failed to rebuild the bank statistics!", t);
+                    }
+                });
+    }
+
+    private boolean scanBalances(BankStatistics.Rebuild rebuild) {
+        long start = System.currentTimeMillis();
+        Map<Integer, String> banks = new HashMap<>();
+        bankIds.forEach((bank, id) -> banks.put(id, bank));
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT uuid, bank_id, balance FROM player_balances ORDER BY uuid"
+             )
+        ) {
+            dialect.streamResults(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String bank = banks.get(resultSet.getInt(2));
+                    // a bank created after the scan started, its balances were flushed meanwhile
+                    if (bank == null) continue;
+                    rebuild.accept(bank, UuidBytes.fromBytes(resultSet.getBytes(1)), resultSet.getLong(3));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        if (!rebuild.finish()) return false;
+        statsRebuilds.increment();
+        lastStatsRebuildMillis = System.currentTimeMillis() - start;
+        return true;
+    }
+
+    @Override
+    public void addBalanceListener(@NotNull BalanceListener listener) {
+        balanceListeners.add(listener);
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("writeBehind.queueDepth", writeBehindQueue.getQueueDepth());
+        metrics.put("writeBehind.mergedWrites", writeBehindQueue.getMergedWrites());
+        metrics.put("writeBehind.writtenRows", writeBehindQueue.getWrittenRows());
+        metrics.put("writeBehind.batches", writeBehindQueue.getBatches());
+        metrics.put("users.loads", loads.sum());
+        metrics.put("users.coalescedLoads", coalescedLoads.sum());
+        metrics.put("users.bulkReads", bulkReads.sum());
+        metrics.put("users.transfers", transfers.sum());
+        metrics.putAll(cache.getStats());
+        metrics.put("ranks.queries", rankQueries.sum());
+        metrics.put("ranks.cached", ranks.size());
+        metrics.put("balTop.reconciled", reconciledTops.sum());
+        metrics.put("stats.rebuilds", statsRebuilds.sum());
+        metrics.put("stats.lastRebuildMillis", lastStatsRebuildMillis);
+        return metrics;
+    }
+
+    private void createTableIfNotExist() {
+        try (Connection connection = writeDataSource.getConnection()) {
+            DbFix.resumeInterruptedMigration(connection, plugin.getLogger());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(Schema.banks(dialect, "banks"));
+                statement.execute(Schema.players(dialect));
+                statement.execute(Schema.balances(dialect, "player_balances"));
+            }
+            // tables of older versions are left alone by CREATE TABLE IF NOT EXISTS and converted here
+            DbFix.migrateToFixedPoint(connection, scales, plugin.getLogger());
+            DbFix.migrateToCompactSchema(connection, dialect, scales, plugin.getLogger());
+            dialect.createIndex(connection, "player_balances", "idx_bank_balance", "bank_id, balance DESC");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<String> loadBanks() {
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT bank_id, bank_name, scale FROM banks")
+        ) {
+            ResultSet resultSet = statement.executeQuery();
+            List<String> result = new ArrayList<>();
+            while (resultSet.next()) {
+                String bank = resultSet.getString("bank_name");
+                bankIds.put(bank, resultSet.getInt("bank_id"));
+                int scale = resultSet.getInt("scale");
+                if (!resultSet.wasNull()) {
+                    scales.setScale(bank, scale);
+                }
+                result.add(bank);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void updateBanks(String bank) {
+        boolean b;
+        synchronized (knownBanks) {
+            b = knownBanks.add(bank);
+        }
+        if (b) {
+            CompletableFuture.runAsync(() -> {
+                try (Connection connection = writeDataSource.getConnection()) {
+                    bankId(connection, bank);
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }, writeExecutor);
+        }
+    }
+
+    /**
+     * Returns the id of the bank, creating the bank if needed. Writer thread only.
+     */
+    private int bankId(Connection connection, String bank) throws SQLException {
+        Integer id = bankIds.get(bank);
+        if (id != null) return id;
+        try (PreparedStatement statement = connection.prepareStatement(dialect.insertBankIfAbsent())) {
+            statement.setString(1, bank);
+            statement.setInt(2, scales.getScale(bank));
+            statement.execute();
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT bank_id, scale FROM banks WHERE bank_name = ?")) {
+            statement.setString(1, bank);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Failed to create bank " + bank);
+                }
+                id = resultSet.getInt("bank_id");
+                int scale = resultSet.getInt("scale");
+                if (!resultSet.wasNull()) {
+                    // another server may have created the bank first
+                    scales.setScale(bank, scale);
+                }
+            }
+        }
+        bankIds.put(bank, id);
+        return id;
+    }
+
+    protected record RankKey(String bank, UUID uuid) {
+    }
+
+    protected record PageKey(String bank, @Nullable PageCursor after, int limit) {
+    }
+}
@@ -0,0 +1,64 @@
+package org.by1337.bvault.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The parts of the SQL that differ between the supported databases.
+ * Everything else in {@link SqlDatabase} is plain SQL understood by all of them.
+ */
+public interface SqlDialect {
+    /**
+     * The column type of 16 byte uuids, see {@link UuidBytes}.
+     */
+    String uuidType();
+
+    /**
+     * The definition of the auto-assigned {@code bank_id} primary key.
+     */
+    String bankIdColumn();
+
+    /**
+     * Appended to tables that are only ever looked up by their primary key.
+     */
+    String tableOptions();
+
+    /**
+     * Inserts a row into {@code player_balances} or updates the balance of an existing one.
+     * Parameters: uuid, bank_id, balance.
+     */
+    String upsertBalance();
+
+    /**
+     * Inserts a row into {@code players} or updates the nickname of an existing one,
+     * without touching the row if the nickname did not change. Parameters: uuid, nickname.
+     */
+    String upsertPlayer();
+
+    /**
+     * Inserts a bank into {@code banks} unless it already exists.
+     * Parameters: bank_name, scale.
+     */
+    String insertBankIfAbsent();
+
+    /**
+     * Creates the index unless an index with that name already exists on the table.
+     */
+    void createIndex(Connection connection, String table, String name, String columns) throws SQLException;
+
+    /**
+     * @return the size of the data and indexes in bytes, or -1 if the database cannot tell.
+     */
+    long databaseSize(Connection connection) throws SQLException;
+
+    /**
+     * Gives the space freed by a migration back to the file system. Must run outside a transaction.
+     */
+    void compact(Connection connection) throws SQLException;
+
+    /**
+     * Makes the statement read its rows as they are consumed instead of loading the whole result into memory.
+     */
+    void streamResults(Statement statement) throws SQLException;
+}
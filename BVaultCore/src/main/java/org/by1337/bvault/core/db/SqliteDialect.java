@@ -0,0 +1,82 @@
+package org.by1337.bvault.core.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class SqliteDialect implements SqlDialect {
+    public static final SqliteDialect INSTANCE = new SqliteDialect();
+
+    @Override
+    public String uuidType() {
+        return "BLOB";
+    }
+
+    @Override
+    public String bankIdColumn() {
+        // an alias of the rowid, assigned automatically
+        return "bank_id INTEGER PRIMARY KEY";
+    }
+
+    @Override
+    public String tableOptions() {
+        // rows are stored in the primary key b-tree itself instead of a rowid table plus an index
+        return " WITHOUT ROWID";
+    }
+
+    @Override
+    public String upsertBalance() {
+        return """
+                INSERT INTO player_balances (uuid, bank_id, balance)
+                VALUES (?, ?, ?)
+                ON CONFLICT(uuid, bank_id) DO UPDATE SET balance = excluded.balance
+                """;
+    }
+
+    @Override
+    public String upsertPlayer() {
+        return """
+                INSERT INTO players (uuid, nickname)
+                VALUES (?, ?)
+                ON CONFLICT(uuid) DO UPDATE SET nickname = excluded.nickname
+                WHERE nickname IS NOT excluded.nickname
+                """;
+    }
+
+    @Override
+    public String insertBankIfAbsent() {
+        return """
+                INSERT OR IGNORE INTO banks (bank_name, scale)
+                VALUES (?, ?)
+                """;
+    }
+
+    @Override
+    public void createIndex(Connection connection, String table, String name, String columns) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(String.format("CREATE INDEX IF NOT EXISTS %s ON %s(%s)", name, table, columns));
+        }
+    }
+
+    @Override
+    public long databaseSize(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT page_count * page_size FROM pragma_page_count(), pragma_page_size()")) {
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        }
+    }
+
+    @Override
+    public void compact(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("VACUUM");
+        }
+    }
+
+    @Override
+    public void streamResults(Statement statement) throws SQLException {
+        // SQLite steps through the result as it is read anyway
+        statement.setFetchSize(1000);
+    }
+}
@@ -1,14 +1,22 @@
 package org.by1337.bvault.core.db;
 
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.top.LeaderboardPage;
+import org.by1337.bvault.core.top.PageCursor;
 import org.by1337.bvault.core.top.TopInfo;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class SwapableDatabase implements Database {
+    private final List<BalanceListener> listeners = new CopyOnWriteArrayList<>();
     private Database source;
 
     public SwapableDatabase(Database source) {
@@ -17,6 +25,8 @@ public class SwapableDatabase implements Database {
 
     public void setSource(Database source) {
         this.source = source;
+        // listeners registered on the swapable database follow it to every source
+        listeners.forEach(source::addBalanceListener);
     }
 
     @Override
@@ -24,11 +34,26 @@ public class SwapableDatabase implements Database {
         return source.getUser(uuid);
     }
 
+    @Override
+    public @Nullable User getCachedUser(@NotNull UUID uuid) {
+        return source.getCachedUser(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Double>> getBalances(@NotNull String bank, @NotNull Collection<UUID> uuids, boolean populateCache) {
+        return source.getBalances(bank, uuids, populateCache);
+    }
+
     @Override
     public void flushUser(@NotNull User user, @NotNull String bank) {
         source.flushUser(user, bank);
     }
 
+    @Override
+    public void flushTransfer(@NotNull User from, @NotNull User to, @NotNull String bank) {
+        source.flushTransfer(from, to, bank);
+    }
+
     @Override
     public void close() {
         source.close();
@@ -54,5 +79,35 @@ public class SwapableDatabase implements Database {
         return source.getTopByBank(bank, limit);
     }
 
-}
+    @Override
+    public CompletableFuture<LeaderboardPage> getTopPage(@NotNull String bank, @Nullable PageCursor after, int limit) {
+        return source.getTopPage(bank, after, limit);
+    }
+
+    @Override
+    public CompletableFuture<Long> getRank(@NotNull String bank, @NotNull UUID uuid) {
+        return source.getRank(bank, uuid);
+    }
+
+    @Override
+    public CompletableFuture<Long> countAccounts(@NotNull String bank) {
+        return source.countAccounts(bank);
+    }
+
+    @Override
+    public BankStats getStats(@NotNull String bank) {
+        return source.getStats(bank);
+    }
 
+    @Override
+    public void addBalanceListener(@NotNull BalanceListener listener) {
+        listeners.add(listener);
+        source.addBalanceListener(listener);
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return source.getMetrics();
+    }
+
+}
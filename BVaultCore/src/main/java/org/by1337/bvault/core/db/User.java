@@ -1,39 +1,72 @@
 package org.by1337.bvault.core.db;
 
+import org.by1337.bvault.api.BankHandle;
 import org.by1337.bvault.api.Validate;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a User with a unique identifier and balances for multiple banks.
+ * Balances are kept in minor units, see {@link BankScales}.
+ * <p>
+ * Every balance is an atomic cell updated by compare-and-set, so reads never block and concurrent
+ * deposits to the same player do not serialize on a lock. The cells are found by the id of the
+ * {@link BankHandle}, the methods taking a bank name look the handle up first.
  */
 public class User {
-    // Lock object for synchronizing access to balances.
-    private final Object lock = new Object();
-    // Stores the initial balances of the user for comparison.
-    final Map<String, Double> balancesOld;
-    // Stores the current balances of the user.
-    final Map<String, Double> balances;
+    // Only one flush at a time, so balances reach the database in the order they were read. Deposits do not take it.
+    private final Object flushLock = new Object();
+    // The current balances of the user together with their flush state, by the id of the bank handle,
+    // null where the user has no balance. Copied on every change of the slots, so readers take no lock.
+    private volatile Balance[] balances = new Balance[0];
+    private final Object cellLock = new Object();
     // Unique identifier for the user.
     private final UUID uuid;
     // Reference to the database for persistence operations.
     private final Database dataBase;
-    private String name;
+    private final BankScales scales;
+    private final BalanceListener listener;
+    private volatile String name;
 
     /**
      * Creates a User with specified balances, UUID, and database reference.
      *
-     * @param balances Initial balances for the user.
+     * @param balances Initial balances for the user in minor units, as stored in the database.
      * @param uuid     Unique identifier for the user.
      * @param dataBase Reference to the database.
+     * @param scales   The scales of the banks.
+     * @param listener Told about every change of a balance.
      */
-    User(Map<String, Double> balances, UUID uuid, Database dataBase, String name) {
-        this.balances = balances;
+    User(Map<String, Long> balances, UUID uuid, Database dataBase, BankScales scales, String name, BalanceListener listener) {
+        Balance[] cells = new Balance[0];
+        for (Map.Entry<String, Long> entry : balances.entrySet()) {
+            BankHandle bank = BankHandle.of(entry.getKey());
+            if (bank.id() >= cells.length) {
+                cells = Arrays.copyOf(cells, bank.id() + 1);
+            }
+            cells[bank.id()] = new Balance(bank, entry.getValue(), true);
+        }
+        this.balances = cells;
         this.uuid = uuid;
         this.dataBase = dataBase;
-        this.balancesOld = new HashMap<>(balances);
+        this.scales = scales;
         this.name = name;
+        this.listener = listener;
+    }
+
+    /**
+     * Creates a User with specified balances, UUID, and database reference.
+     *
+     * @param balances Initial balances for the user in minor units, as stored in the database.
+     * @param uuid     Unique identifier for the user.
+     * @param dataBase Reference to the database.
+     * @param scales   The scales of the banks.
+     */
+    User(Map<String, Long> balances, UUID uuid, Database dataBase, BankScales scales, String name) {
+        this(balances, uuid, dataBase, scales, name, BalanceListener.NONE);
     }
 
     /**
@@ -41,25 +74,25 @@ public class User {
      *
      * @param uuid     Unique identifier for the user.
      * @param dataBase Reference to the database.
+     * @param scales   The scales of the banks.
      */
-    User(UUID uuid, Database dataBase, String name) {
-        this.uuid = uuid;
-        this.dataBase = dataBase;
-        this.name = name;
-        this.balances = new HashMap<>();
-        this.balancesOld = new HashMap<>();
+    User(UUID uuid, Database dataBase, BankScales scales, String name) {
+        this(Collections.emptyMap(), uuid, dataBase, scales, name);
     }
 
     /**
      * Flushes the changes in balances to the database if there are any differences.
      */
     public void flush() {
-        synchronized (lock) {
-            for (String bank : balances.keySet()) {
-                var oldBalance = balancesOld.get(bank);
-                if (!Objects.equals(oldBalance, balances.get(bank))) {
-                    dataBase.flushUser(this, bank);
-                    balancesOld.put(bank, balances.get(bank));
+        synchronized (flushLock) {
+            for (Balance balance : balances) {
+                if (balance == null) continue;
+                // read before flushUser reads the value, a change after this point leaves the cell dirty
+                long version = balance.version.get();
+                if (!balance.stored || version != balance.flushedVersion) {
+                    dataBase.flushUser(this, balance.bank.name());
+                    balance.flushedVersion = version;
+                    balance.stored = true;
                 }
             }
         }
@@ -72,13 +105,20 @@ public class User {
      * @param amount The amount to withdraw.
      * @return The new balance of the bank after the withdrawal.
      */
-    public Double withdraw(String bank, Double amount) {
-        synchronized (lock) {
-            Validate.assertPositive(amount);
-            var newBalance = balances.getOrDefault(bank, 0D) - amount;
-            balances.put(bank, newBalance);
-            return newBalance;
-        }
+    public double withdraw(String bank, double amount) {
+        return withdraw(BankHandle.of(bank), amount);
+    }
+
+    /**
+     * Withdraws a specified amount from the balance of a specified bank.
+     *
+     * @param bank   The bank from which the amount will be withdrawn.
+     * @param amount The amount to withdraw.
+     * @return The new balance of the bank after the withdrawal.
+     */
+    public double withdraw(BankHandle bank, double amount) {
+        Validate.assertPositive(amount);
+        return scales.toDouble(bank, add(bank, -scales.toMinor(bank, amount)));
     }
 
     /**
@@ -88,12 +128,130 @@ public class User {
      * @param amount The amount to deposit.
      * @return The new balance of the bank after the deposit.
      */
-    public Double deposit(String bank, Double amount) {
-        synchronized (lock) {
-            Validate.assertPositive(amount);
-            var newBalance = balances.getOrDefault(bank, 0D) + amount;
-            balances.put(bank, newBalance);
-            return newBalance;
+    public double deposit(String bank, double amount) {
+        return deposit(BankHandle.of(bank), amount);
+    }
+
+    /**
+     * Deposits a specified amount to the balance of a specified bank.
+     *
+     * @param bank   The bank to which the amount will be deposited.
+     * @param amount The amount to deposit.
+     * @return The new balance of the bank after the deposit.
+     */
+    public double deposit(BankHandle bank, double amount) {
+        Validate.assertPositive(amount);
+        return scales.toDouble(bank, add(bank, scales.toMinor(bank, amount)));
+    }
+
+    /**
+     * Moves a specified amount from this user to another in a specified bank, and hands both new balances
+     * to the database together, see {@link Database#flushTransfer(User, User, String)}.
+     * Both users are locked in the order of their uuids, so concurrent transfers between the same players
+     * in opposite directions do not deadlock. Like {@link #withdraw(BankHandle, double)} this does not
+     * check that the balance covers the amount.
+     *
+     * @param to     The user receiving the amount, not this user.
+     * @param bank   The bank in which the amount is moved.
+     * @param amount The amount to move.
+     * @return The new balance of this user.
+     * @see #transfer(User, BankHandle, double, boolean)
+     */
+    public double transfer(User to, BankHandle bank, double amount) {
+        return transfer(to, bank, amount, false);
+    }
+
+    /**
+     * Moves a specified amount from this user to another in a specified bank.
+     * If the database does not take the new balances, both are restored and stay unflushed,
+     * so the next {@link #flush()} hands the restored balances to the database.
+     *
+     * @param to           The user receiving the amount, not this user.
+     * @param bank         The bank in which the amount is moved.
+     * @param amount       The amount to move.
+     * @param requireFunds Whether to reject the transfer if it would take the balance of this user below zero.
+     * @return The new balance of this user.
+     * @throws IllegalStateException if requireFunds is set and the balance does not cover the amount.
+     * @see #transfer(User, BankHandle, double)
+     */
+    public double transfer(User to, BankHandle bank, double amount, boolean requireFunds) {
+        Validate.assertPositive(amount);
+        if (to.uuid.equals(uuid)) {
+            throw new IllegalArgumentException("Cannot transfer to the same player!");
+        }
+        long minor = scales.toMinor(bank, amount);
+        User first = uuid.compareTo(to.uuid) < 0 ? this : to;
+        User second = first == this ? to : this;
+        synchronized (first.flushLock) {
+            synchronized (second.flushLock) {
+                Balance source;
+                long balance;
+                if (requireFunds) {
+                    // a user without a balance has nothing to cover the amount, and gets no empty balance either
+                    source = find(bank);
+                    balance = source == null ? -minor : source.addIfCovered(-minor);
+                    if (source == null || balance < 0) {
+                        throw new IllegalStateException("Insufficient funds!");
+                    }
+                } else {
+                    source = cell(bank);
+                    balance = source.add(-minor);
+                }
+                Balance target = to.cell(bank);
+                try {
+                    target.add(minor);
+                } catch (ArithmeticException e) {
+                    source.add(minor);
+                    throw e;
+                }
+                listener.balanceChanged(this, bank.name());
+                to.listener.balanceChanged(to, bank.name());
+                // read before the database reads the values, like in flush
+                long sourceVersion = source.version.get();
+                long targetVersion = target.version.get();
+                try {
+                    dataBase.flushTransfer(this, to, bank.name());
+                } catch (RuntimeException e) {
+                    // the versions move on again, so both cells stay dirty
+                    target.add(-minor);
+                    source.add(minor);
+                    listener.balanceChanged(this, bank.name());
+                    to.listener.balanceChanged(to, bank.name());
+                    throw e;
+                }
+                source.flushedVersion = sourceVersion;
+                source.stored = true;
+                target.flushedVersion = targetVersion;
+                target.stored = true;
+                return scales.toDouble(bank, balance);
+            }
+        }
+    }
+
+    private long add(BankHandle bank, long delta) {
+        long balance = cell(bank).add(delta);
+        listener.balanceChanged(this, bank.name());
+        return balance;
+    }
+
+    @Nullable
+    private Balance find(BankHandle bank) {
+        Balance[] cells = balances;
+        return bank.id() < cells.length ? cells[bank.id()] : null;
+    }
+
+    private Balance cell(BankHandle bank) {
+        Balance balance = find(bank);
+        if (balance != null) return balance;
+        synchronized (cellLock) {
+            balance = find(bank);
+            if (balance == null) {
+                Balance[] cells = Arrays.copyOf(balances, Math.max(balances.length, bank.id() + 1));
+                balance = new Balance(bank, 0, false);
+                cells[bank.id()] = balance;
+                balances = cells;
+            }
+            return balance;
         }
     }
 
@@ -103,10 +261,51 @@ public class User {
      * @param bank The bank whose balance is to be retrieved.
      * @return The balance of the bank.
      */
-    public Double getBalance(String bank) {
-        synchronized (lock) {
-            return balances.getOrDefault(bank, 0D);
-        }
+    public double getBalance(String bank) {
+        return getBalance(BankHandle.of(bank));
+    }
+
+    /**
+     * Retrieves the balance of a specified bank.
+     *
+     * @param bank The bank whose balance is to be retrieved.
+     * @return The balance of the bank.
+     */
+    public double getBalance(BankHandle bank) {
+        return scales.toDouble(bank, getMinorBalance(bank));
+    }
+
+    /**
+     * Retrieves the balance of a specified bank in minor units.
+     *
+     * @param bank The bank whose balance is to be retrieved.
+     * @return The balance of the bank in minor units.
+     */
+    public long getMinorBalance(String bank) {
+        return getMinorBalance(BankHandle.of(bank));
+    }
+
+    /**
+     * Retrieves the balance of a specified bank in minor units.
+     *
+     * @param bank The bank whose balance is to be retrieved.
+     * @return The balance of the bank in minor units.
+     */
+    public long getMinorBalance(BankHandle bank) {
+        Balance balance = find(bank);
+        return balance == null ? 0 : balance.value.get();
+    }
+
+    /**
+     * Retrieves the balance of a specified bank in minor units, if the user has one.
+     *
+     * @param bank The bank whose balance is to be retrieved.
+     * @return The balance of the bank in minor units, or null if the user has no balance in this bank.
+     */
+    @Nullable
+    public Long findMinorBalance(BankHandle bank) {
+        Balance balance = find(bank);
+        return balance == null ? null : balance.value.get();
     }
 
     /**
@@ -115,8 +314,51 @@ public class User {
      * @return The list with all existed bank accounts.
      */
     public Set<String> getExistedBanks() {
-        synchronized (lock) {
-            return balances.keySet();
+        Set<String> banks = new HashSet<>();
+        for (Balance balance : balances) {
+            if (balance != null) {
+                banks.add(balance.bank.name());
+            }
+        }
+        return banks;
+    }
+
+    /**
+     * Remembers the balance handed to the database, called by {@link Database#flushUser(User, String)}
+     * while the user is flushed.
+     *
+     * @param bank    The bank flushed.
+     * @param balance The balance handed to the database in minor units.
+     * @return The balance handed to the database before, or null if the database had no balance of this bank.
+     */
+    @Nullable
+    Long exchangeFlushedBalance(String bank, long balance) {
+        Balance cell = find(BankHandle.of(bank));
+        if (cell == null) return null;
+        Long previous = cell.flushedValue;
+        cell.flushedValue = balance;
+        return previous;
+    }
+
+    /**
+     * Forgets the balance without flushing it, used after the balances were deleted from the database.
+     *
+     * @param bank The bank to forget, or null to forget every bank.
+     */
+    void dropBalances(@Nullable String bank) {
+        List<String> dropped = new ArrayList<>();
+        synchronized (cellLock) {
+            Balance[] cells = balances.clone();
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null && (bank == null || cells[i].bank.name().equals(bank))) {
+                    dropped.add(cells[i].bank.name());
+                    cells[i] = null;
+                }
+            }
+            balances = cells;
+        }
+        for (String name : dropped) {
+            listener.balanceChanged(this, name);
         }
     }
 
@@ -137,4 +379,52 @@ public class User {
     public void setName(String name) {
         this.name = name;
     }
+
+    private static class Balance {
+        private final BankHandle bank;
+        private final AtomicLong value;
+        // incremented after every change of value
+        private final AtomicLong version = new AtomicLong();
+        // the version last handed to the database
+        private volatile long flushedVersion;
+        // whether the database has a row for this bank
+        private volatile boolean stored;
+        // the value last handed to the database, null if there is none yet
+        private volatile Long flushedValue;
+
+        private Balance(BankHandle bank, long value, boolean stored) {
+            this.bank = bank;
+            this.value = new AtomicLong(value);
+            this.stored = stored;
+            this.flushedValue = stored ? value : null;
+        }
+
+        private long add(long delta) {
+            long current;
+            long next;
+            do {
+                current = value.get();
+                next = Math.addExact(current, delta);
+            } while (!value.compareAndSet(current, next));
+            version.incrementAndGet();
+            return next;
+        }
+
+        /**
+         * Like {@link #add(long)}, but leaves the value as it is if it would drop below zero.
+         *
+         * @return the new value, or the negative value it would have been.
+         */
+        private long addIfCovered(long delta) {
+            long current;
+            long next;
+            do {
+                current = value.get();
+                next = Math.addExact(current, delta);
+                if (next < 0) return next;
+            } while (!value.compareAndSet(current, next));
+            version.incrementAndGet();
+            return next;
+        }
+    }
 }
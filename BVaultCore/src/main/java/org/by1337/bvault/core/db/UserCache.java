@@ -0,0 +1,185 @@
+package org.by1337.bvault.core.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loaded users, online and offline, in one concurrent map. Reads do not lock.
+ * <p>
+ * Online players are never evicted. Offline players expire after {@code ttl} without access,
+ * and when there are more than {@code maxOffline} of them the least frequently used go first.
+ * Eviction runs in {@link #cleanUp()}, off the read path.
+ */
+public class UserCache {
+    private final Map<UUID, Entry> users = new ConcurrentHashMap<>();
+    // maintained from the join and quit events, so eviction never has to ask Bukkit
+    private final Set<UUID> online = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean cleanUpRequested = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final int maxOffline;
+    private final long ttlNanos;
+    private final Executor executor;
+
+    /**
+     * @param maxOffline the number of offline users kept in memory.
+     * @param ttl        how long an offline user stays without being accessed.
+     * @param executor   the executor on which size-triggered clean ups are run.
+     */
+    public UserCache(int maxOffline, long ttl, TimeUnit unit, Executor executor) {
+        this.maxOffline = Math.max(0, maxOffline);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.executor = executor;
+    }
+
+    @Nullable
+    public User get(@NotNull UUID uuid) {
+        Entry entry = users.get(uuid);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.touch();
+        hits.increment();
+        return entry.user;
+    }
+
+    /**
+     * Like {@link #get(UUID)}, but neither counted in the stats nor as an access.
+     */
+    @Nullable
+    public User peek(@NotNull UUID uuid) {
+        Entry entry = users.get(uuid);
+        return entry == null ? null : entry.user;
+    }
+
+    public void put(@NotNull User user) {
+        users.put(user.getUuid(), new Entry(user));
+        // a little slack, so that a full cache does not run a clean up on every load
+        if (users.size() - online.size() > maxOffline + maxOffline / 10 + 1 && cleanUpRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::cleanUp);
+            } catch (RejectedExecutionException e) {
+                cleanUpRequested.set(false);
+            }
+        }
+    }
+
+    public void setOnline(@NotNull UUID uuid, boolean isOnline) {
+        if (isOnline) {
+            online.add(uuid);
+        } else {
+            online.remove(uuid);
+            // the ttl of a player who left starts now
+            Entry entry = users.get(uuid);
+            if (entry != null) {
+                entry.touch();
+            }
+        }
+    }
+
+    public boolean isOnline(@NotNull UUID uuid) {
+        return online.contains(uuid);
+    }
+
+    public Collection<User> values() {
+        List<User> result = new ArrayList<>(users.size());
+        for (Entry entry : users.values()) {
+            result.add(entry.user);
+        }
+        return result;
+    }
+
+    public void recordLoad(long nanos) {
+        loads.increment();
+        loadTime.add(nanos);
+    }
+
+    /**
+     * Removes expired offline users, then the least frequently used ones above the limit.
+     * Frequencies are halved on every run so that old popularity fades.
+     */
+    public void cleanUp() {
+        cleanUpRequested.set(false);
+        long now = System.nanoTime();
+        List<Map.Entry<UUID, Entry>> offline = new ArrayList<>();
+        for (Map.Entry<UUID, Entry> e : users.entrySet()) {
+            if (online.contains(e.getKey())) continue;
+            Entry entry = e.getValue();
+            if (now - entry.lastAccess > ttlNanos) {
+                if (users.remove(e.getKey(), entry)) {
+                    expirations.increment();
+                }
+            } else {
+                offline.add(e);
+            }
+        }
+        int excess = offline.size() - maxOffline;
+        if (excess > 0) {
+            offline.sort(Comparator.<Map.Entry<UUID, Entry>>comparingInt(e -> e.getValue().frequency)
+                    .thenComparingLong(e -> e.getValue().lastAccess));
+            for (int i = 0; i < excess; i++) {
+                var e = offline.get(i);
+                if (users.remove(e.getKey(), e.getValue())) {
+                    evictions.increment();
+                }
+            }
+        }
+        for (Entry entry : users.values()) {
+            entry.frequency >>>= 1;
+        }
+    }
+
+    public void clear() {
+        users.clear();
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("cache.size", users.size());
+        stats.put("cache.online", online.size());
+        stats.put("cache.hits", hits.sum());
+        stats.put("cache.misses", misses.sum());
+        stats.put("cache.evictions", evictions.sum());
+        stats.put("cache.expirations", expirations.sum());
+        long loadCount = loads.sum();
+        stats.put("cache.averageLoadMillis", loadCount == 0 ? 0 : loadTime.sum() / 1_000_000D / loadCount);
+        return stats;
+    }
+
+    private static class Entry {
+        private final User user;
+        // racy updates are fine, both are only hints for eviction
+        private volatile long lastAccess;
+        private volatile int frequency;
+
+        private Entry(User user) {
+            this.user = user;
+            touch();
+        }
+
+        @SuppressWarnings("NonAtomicOperationOnVolatileField")
+        private void touch() {
+            lastAccess = System.nanoTime();
+            if (frequency < 255) {
+                frequency++;
+            }
+        }
+    }
+}
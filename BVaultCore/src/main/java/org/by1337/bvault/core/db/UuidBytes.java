@@ -0,0 +1,24 @@
+package org.by1337.bvault.core.db;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Uuids are stored as 16 bytes, most significant bits first, instead of 36 characters.
+ */
+public final class UuidBytes {
+    private UuidBytes() {
+    }
+
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
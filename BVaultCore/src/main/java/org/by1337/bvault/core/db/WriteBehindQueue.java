@@ -0,0 +1,223 @@
+package org.by1337.bvault.core.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects balance upserts and writes them to the database in batches.
+ * Only the latest balance per (uuid, bank) pair is kept, so a player who receives
+ * hundreds of deposits between two flushes costs a single row write.
+ */
+public class WriteBehindQueue {
+    private final Map<Key, Entry> pending = new ConcurrentHashMap<>();
+    // The batch being written. An entry is added here before it leaves pending and removed once it is in the database.
+    private final Map<Key, Entry> inFlight = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    // held while a flush moves pending into its batch and while a group is offered, so a batch has all of a group or none
+    private final Object groupLock = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final Writer writer;
+    private final Executor executor;
+    private final int batchSize;
+    private final Logger logger;
+
+    /**
+     * @param writer    writes one batch in one transaction.
+     * @param executor  the executor on which size-triggered flushes are run.
+     * @param batchSize the number of pending pairs after which a flush is requested without waiting for the interval.
+     * @param logger    the logger for failed flushes.
+     */
+    public WriteBehindQueue(Writer writer, Executor executor, int batchSize, Logger logger) {
+        this.writer = writer;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        this.logger = logger;
+    }
+
+    /**
+     * Queues the balance (in minor units) for writing, replacing any pending value for the same uuid and bank.
+     */
+    public void offer(@NotNull UUID uuid, @NotNull String bank, @NotNull String nickName, long balance) {
+        if (pending.put(new Key(uuid, bank), new Entry(uuid, bank, nickName, balance)) != null) {
+            merged.increment();
+        }
+        requestFlushIfFull();
+    }
+
+    /**
+     * Queues balances that must reach the database in the same transaction, such as both sides of a transfer.
+     * A flush takes all of them or none. A newer value offered later replaces an entry as usual.
+     */
+    public void offerAll(@NotNull List<Entry> entries) {
+        synchronized (groupLock) {
+            for (Entry entry : entries) {
+                if (pending.put(new Key(entry.uuid(), entry.bank()), entry) != null) {
+                    merged.increment();
+                }
+            }
+        }
+        requestFlushIfFull();
+    }
+
+    private void requestFlushIfFull() {
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the final flush will pick the entries up
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending balances as one batch.
+     * If the write fails the entries are put back unless a newer value arrived in the meantime.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            if (pending.isEmpty()) return;
+            List<Entry> batch = new ArrayList<>(pending.size());
+            synchronized (groupLock) {
+                for (Map.Entry<Key, Entry> e : pending.entrySet()) {
+                    Entry entry = e.getValue();
+                    inFlight.put(e.getKey(), entry);
+                    if (pending.remove(e.getKey(), entry)) {
+                        batch.add(entry);
+                    } else {
+                        // replaced by a newer value, which stays for the next flush
+                        inFlight.remove(e.getKey(), entry);
+                    }
+                }
+            }
+            if (batch.isEmpty()) return;
+            try {
+                writer.write(batch);
+                written.add(batch.size());
+                batches.increment();
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Failed to flush " + batch.size() + " balances!", e);
+                synchronized (groupLock) {
+                    for (Entry entry : batch) {
+                        pending.putIfAbsent(new Key(entry.uuid(), entry.bank()), entry);
+                    }
+                }
+            } finally {
+                inFlight.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the balances of the player that are not in the database yet.
+     * Taken before the user is read from the database, it covers everything the read may miss.
+     * Scans the whole queue, which is fine for the rare cache misses it is meant for.
+     *
+     * @return bank to balance in minor units.
+     */
+    public Map<String, Long> getPending(@NotNull UUID uuid) {
+        Map<String, Long> result = new HashMap<>();
+        for (Entry entry : pending.values()) {
+            if (entry.uuid().equals(uuid)) {
+                result.put(entry.bank(), entry.balance());
+            }
+        }
+        // read after pending, an entry moves into inFlight before it leaves pending
+        for (Entry entry : inFlight.values()) {
+            if (entry.uuid().equals(uuid)) {
+                result.putIfAbsent(entry.bank(), entry.balance());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the balances in one bank of the given players that are not in the database yet.
+     * Like {@link #getPending(UUID)}, but for many players with a single scan of the queue.
+     *
+     * @return uuid to balance in minor units, only for the players that have one pending.
+     */
+    public Map<UUID, Long> getPending(@NotNull String bank, @NotNull Set<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        for (Entry entry : pending.values()) {
+            if (entry.bank().equals(bank) && uuids.contains(entry.uuid())) {
+                result.put(entry.uuid(), entry.balance());
+            }
+        }
+        // read after pending, an entry moves into inFlight before it leaves pending
+        for (Entry entry : inFlight.values()) {
+            if (entry.bank().equals(bank) && uuids.contains(entry.uuid())) {
+                result.putIfAbsent(entry.uuid(), entry.balance());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops pending balances without writing them.
+     *
+     * @param bank the bank whose balances are dropped, or null to drop everything.
+     */
+    public void discard(@Nullable String bank) {
+        synchronized (flushLock) {
+            if (bank == null) {
+                pending.clear();
+            } else {
+                pending.keySet().removeIf(key -> key.bank().equals(bank));
+            }
+        }
+    }
+
+    /**
+     * @return the number of (uuid, bank) pairs waiting to be written.
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of writes that were replaced by a newer value before reaching the database.
+     */
+    public long getMergedWrites() {
+        return merged.sum();
+    }
+
+    /**
+     * @return the number of rows written to the database.
+     */
+    public long getWrittenRows() {
+        return written.sum();
+    }
+
+    /**
+     * @return the number of batches (transactions) written to the database.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    private record Key(UUID uuid, String bank) {
+    }
+
+    public record Entry(UUID uuid, String bank, String nickName, long balance) {
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(List<Entry> batch) throws SQLException;
+    }
+}
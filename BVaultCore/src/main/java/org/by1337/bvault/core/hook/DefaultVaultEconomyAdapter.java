@@ -2,18 +2,116 @@ package org.by1337.bvault.core.hook;
 
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.core.db.Database;
+import org.by1337.bvault.core.db.User;
+import org.jetbrains.annotations.Nullable;
 
 import java.text.DecimalFormat;
-import java.util.Collections;
-import java.util.List;
-
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vault is called from the main thread, so cached users are read in place and changed through the
+ * {@link BEconomy} fast path, the database write is queued. Only accounts that are not in memory wait
+ * for a load, at most {@code timeout} milliseconds, after which the {@link ColdAccountFallback} decides.
+ */
 public class DefaultVaultEconomyAdapter implements Economy {
     private final BEconomy bEconomy;
-
-    public DefaultVaultEconomyAdapter(BEconomy bEconomy) {
+    private final BankHandle bank;
+    private final Database database;
+    private final long timeout;
+    private final ColdAccountFallback fallback;
+    private final LongAdder fastPath = new LongAdder();
+    private final LongAdder blockedCalls = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public DefaultVaultEconomyAdapter(BEconomy bEconomy, Database database, long timeout, ColdAccountFallback fallback) {
         this.bEconomy = bEconomy;
+        this.bank = bEconomy.bank(BEconomy.DEFAULT_BANK);
+        this.database = database;
+        this.timeout = timeout;
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return the cached user, or the loaded user, or null if loading it timed out and the fallback is {@link ColdAccountFallback#FAIL}.
+     */
+    @Nullable
+    private User getUser(OfflinePlayer player) {
+        User user = database.getCachedUser(player.getUniqueId());
+        if (user != null) {
+            fastPath.increment();
+            return user;
+        }
+        boolean primaryThread = Bukkit.isPrimaryThread();
+        long start = System.nanoTime();
+        CompletableFuture<User> future = database.getUser(player.getUniqueId());
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return fallback == ColdAccountFallback.WAIT ? future.join() : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } finally {
+            if (primaryThread) {
+                blockedCalls.increment();
+                blockedNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Loads a cold account first under the timeout and fallback, after which {@link BEconomy} answers from memory.
+     */
+    private EconomyResponse change(OfflinePlayer player, double amount, boolean deposit) {
+        if (getUser(player) == null) return notLoaded(amount);
+        CompletableFuture<Double> future = deposit ?
+                bEconomy.deposit(bank, player.getUniqueId(), amount) :
+                bEconomy.withdraw(bank, player.getUniqueId(), amount);
+        try {
+            return new EconomyResponse(amount, future.join(), EconomyResponse.ResponseType.SUCCESS, null);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            return new EconomyResponse(amount, 0, EconomyResponse.ResponseType.FAILURE, cause.getMessage());
+        }
+    }
+
+    private EconomyResponse notLoaded(double amount) {
+        return new EconomyResponse(amount, 0, EconomyResponse.ResponseType.FAILURE, "The account is still loading, try again later");
+    }
+
+    /**
+     * @return calls served from memory, main thread calls that waited for a load and how long they waited in total.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("vault.fastPath", fastPath.sum());
+        metrics.put("vault.blockedCalls", blockedCalls.sum());
+        metrics.put("vault.blockedMillis", blockedNanos.sum() / 1_000_000D);
+        metrics.put("vault.timeouts", timeouts.sum());
+        return metrics;
+    }
+
+    public enum ColdAccountFallback {
+        /**
+         * Reads return 0 and changes fail without touching the balance.
+         * Callers cannot tell such a 0 from an empty account, so this is opt-in.
+         */
+        FAIL,
+        /**
+         * Keeps waiting until the account is loaded. The default.
+         */
+        WAIT
     }
 
     /**
@@ -156,7 +254,8 @@ public class DefaultVaultEconomyAdapter implements Economy {
      */
     @Override
     public double getBalance(OfflinePlayer player) {
-        return bEconomy.getBalance(player.getUniqueId()).join();
+        User user = getUser(player);
+        return user == null ? 0D : user.getBalance(bank);
     }
 
     /**
@@ -248,12 +347,7 @@ public class DefaultVaultEconomyAdapter implements Economy {
      */
     @Override
     public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
-        return new EconomyResponse(
-                amount,
-                bEconomy.withdraw(player.getUniqueId(), amount).join(),
-                EconomyResponse.ResponseType.SUCCESS,
-                null
-        );
+        return change(player, amount, false);
     }
 
     /**
@@ -278,12 +372,7 @@ public class DefaultVaultEconomyAdapter implements Economy {
      */
     @Override
     public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
-        return new EconomyResponse(
-                amount,
-                bEconomy.withdraw(player.getUniqueId(), amount).join(),
-                EconomyResponse.ResponseType.SUCCESS,
-                null
-        );
+        return withdrawPlayer(player, amount);
     }
 
     /**
@@ -305,12 +394,7 @@ public class DefaultVaultEconomyAdapter implements Economy {
      */
     @Override
     public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
-        return new EconomyResponse(
-                amount,
-                bEconomy.deposit(player.getUniqueId(), amount).join(),
-                EconomyResponse.ResponseType.SUCCESS,
-                null
-        );
+        return change(player, amount, true);
     }
 
     /**
@@ -335,12 +419,7 @@ public class DefaultVaultEconomyAdapter implements Economy {
      */
     @Override
     public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
-        return new EconomyResponse(
-                amount,
-                bEconomy.deposit(player.getUniqueId(), amount).join(),
-                EconomyResponse.ResponseType.SUCCESS,
-                null
-        );
+        return depositPlayer(player, amount);
     }
 
     /**
@@ -1,148 +1,298 @@
 package org.by1337.bvault.core.hook;
 
-import com.google.common.base.Joiner;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.by1337.blib.configuration.YamlContext;
-import org.by1337.blib.hook.papi.Placeholder;
-import org.by1337.blib.util.Pair;
 import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.api.Validate;
+import org.by1337.bvault.core.db.Database;
+import org.by1337.bvault.core.db.User;
 import org.by1337.bvault.core.top.BalTop;
 import org.by1337.bvault.core.top.TopInfo;
+import org.by1337.bvault.core.top.TopSnapshot;
+import org.by1337.bvault.core.util.MoneyFormat;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
-public class PAPIHook extends PlaceholderExpansion {
-    private final DecimalFormat rawFormat = new DecimalFormat("#");
+public class PAPIHook extends PlaceholderExpansion implements Listener {
+    // params come from configs, but a plugin may pass anything, so the cache stops growing here
+    private static final int MAX_COMPILED = 4096;
+    private static final Resolver UNKNOWN = player -> null;
     private final long cashTime;
-    private final DecimalFormat decimalFormat;
-    private final String thousandSeparator;
-    private final String integerSeparator;
+    private final MoneyFormat moneyFormat;
+    private final MoneyFormat countFormat;
+    private final MoneyFormat rawFormat = new MoneyFormat("#", "", "");
     private final String empty;
     private final BalTop balTop;
+    private final Database database;
     private final Plugin plugin;
-    private final Placeholder placeholder;
-    private final Map<String, Pair<List<TopInfo>, Long>> cashedTops = new HashMap<>();
-    private final int topSize;
+    // the balance text of online players by bank, filled on join and on first use,
+    // and rendered again by the User whenever the balance changes
+    private final Map<UUID, Map<String, RenderedBalance>> renderedBalances = new ConcurrentHashMap<>();
+    // the text of every top position, checked against the BalTop snapshot at most every cashTime
+    // and rendered again only when the snapshot changed
+    private final Map<String, RenderedTop> renderedTops = new ConcurrentHashMap<>();
+    // the stats of every bank asked for, built again at most every cashTime
+    private final Map<String, CachedStats> cachedStats = new ConcurrentHashMap<>();
+    private final String emptyBalance;
+    // every params string seen so far, parsed once into the code that answers it
+    private final Map<String, Resolver> compiled = new ConcurrentHashMap<>();
 
-    public PAPIHook(YamlContext context, BalTop balTop, Plugin plugin) {
+    public PAPIHook(YamlContext context, BalTop balTop, Database database, Plugin plugin) {
         cashTime = TimeUnit.SECONDS.toMillis(context.getAsInteger("cashTime", 60));
-        decimalFormat = new DecimalFormat(context.getAsString("balTop.format.decimal-format", "#.##"));
-        thousandSeparator = context.getAsString("balTop.format.thousand-separator", " ");
-        integerSeparator = context.getAsString("balTop.format.integer-separator", " ");
+        String thousandSeparator = context.getAsString("balTop.format.thousand-separator", " ");
+        String integerSeparator = context.getAsString("balTop.format.integer-separator", " ");
+        moneyFormat = new MoneyFormat(context.getAsString("balTop.format.decimal-format", "#.##"), thousandSeparator, integerSeparator);
+        countFormat = new MoneyFormat("#", thousandSeparator, integerSeparator);
         empty = context.getAsString("emptyPos", "----");
-        topSize = context.getAsInteger("size", 100);
+        emptyBalance = moneyFormat.format(0.0);
         this.balTop = balTop;
+        this.database = database;
         this.plugin = plugin;
-        placeholder = new Placeholder("root");
-
-        placeholder.addSubPlaceholder(new Placeholder("top_nick")
-                .executor(((player, args) -> {
-                    if (args.length != 2) return "use %bvault_top_nick_<bank>_<position>%";
-                    try {
-                        String bank = args[0];
-                        int pos = Integer.parseInt(args[1]);
-                        var v = getTop(bank).get(pos);
-                        if (v == TopInfo.EMPTY) return empty;
-                        return v.nickName();
-                    } catch (NumberFormatException | NullPointerException e) {
-                        plugin.getLogger().log(Level.SEVERE, "", e);
-                        return "use %bvault_top_nick_<bank>_<position>%! gotten " + Joiner.on("_").join(args);
-                    }
-                }))
-        );
-        placeholder.addSubPlaceholder(new Placeholder("top_balance")
-                .executor(((player, args) -> {
-                    if (args.length != 2) return "use %bvault_top_balance_<bank>_<position>%";
-                    try {
-                        String bank = args[0];
-                        int pos = Integer.parseInt(args[1]);
-                        return formatNumberWithThousandsSeparator(decimalFormat.format(getTop(bank).get(pos).balance()));
-                    } catch (NumberFormatException | NullPointerException e) {
-                        plugin.getLogger().log(Level.SEVERE, "", e);
-                        return "use %bvault_top_balance_<bank>_<position>%! gotten " + Joiner.on("_").join(args);
-                    }
-                }))
-        );
-        placeholder.addSubPlaceholder(new Placeholder("balance")
-                .executor(((player, args) -> {
+        database.addBalanceListener(this::balanceChanged);
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            renderedBalances.put(player.getUniqueId(), new ConcurrentHashMap<>());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        Map<String, RenderedBalance> balances = renderedBalances.computeIfAbsent(uuid, k -> new ConcurrentHashMap<>());
+        User user = database.getCachedUser(uuid);
+        if (user != null) {
+            balances.computeIfAbsent(BEconomy.DEFAULT_BANK, bank -> render(user, bank));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        renderedBalances.remove(event.getPlayer().getUniqueId());
+    }
+
+    private void balanceChanged(User user, String bank) {
+        Map<String, RenderedBalance> balances = renderedBalances.get(user.getUuid());
+        // rendered from the balance read under the key lock, the last of racing changes always wins
+        if (balances != null) {
+            balances.compute(bank, (b, old) -> render(user, b));
+        }
+    }
+
+    private RenderedBalance render(User user, String bank) {
+        double balance = user.getBalance(bank);
+        return new RenderedBalance(moneyFormat.format(balance), rawFormat.format(balance));
+    }
+
+    /**
+     * Never waits, a player who is not loaded yet shows as {@code emptyPos} until the next refresh.
+     */
+    @Nullable
+    private RenderedBalance getBalance(Player player, String bank) {
+        Map<String, RenderedBalance> balances = renderedBalances.get(player.getUniqueId());
+        if (balances == null) {
+            // asked before the join event, or for a player who already left
+            balances = player.isOnline() ?
+                    renderedBalances.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>()) :
+                    new ConcurrentHashMap<>();
+        }
+        RenderedBalance rendered = balances.get(bank);
+        if (rendered != null) return rendered;
+        User user = database.getCachedUser(player.getUniqueId());
+        if (user == null) {
+            database.getUser(player.getUniqueId());
+            return null;
+        }
+        return balances.computeIfAbsent(bank, b -> render(user, b));
+    }
+
+    @Override
+    public @Nullable String onPlaceholderRequest(Player player, @NotNull String params) {
+        Resolver resolver = compiled.get(params);
+        if (resolver == null) {
+            resolver = compile(params);
+            if (compiled.size() < MAX_COMPILED) {
+                compiled.put(params, resolver);
+            }
+        }
+        return resolver.resolve(player);
+    }
+
+    private Resolver compile(String params) {
+        String[] args = params.split("_");
+        if (args.length >= 2 && args[0].equals("top") && args[1].equals("nick")) {
+            return compileTop(params, "use %bvault_top_nick_<bank>_<position>%", Arrays.copyOfRange(args, 2, args.length), true);
+        }
+        if (args.length >= 2 && args[0].equals("top") && args[1].equals("balance")) {
+            return compileTop(params, "use %bvault_top_balance_<bank>_<position>%", Arrays.copyOfRange(args, 2, args.length), false);
+        }
+        if (args.length >= 2 && args[0].equals("raw") && args[1].equals("balance")) {
+            String bank = bank(Arrays.copyOfRange(args, 2, args.length));
+            String error = checkBank(bank);
+            if (error != null) return player -> error;
+            return player -> {
+                if (player == null) return "only for players";
+                RenderedBalance balance = getBalance(player, bank);
+                return balance == null ? empty : balance.raw();
+            };
+        }
+        String[] rest = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "balance" -> {
+                String bank = bank(rest);
+                String error = checkBank(bank);
+                if (error != null) return player -> error;
+                return player -> {
                     if (player == null) return "only for players";
-                    String bank;
-                    if (args.length == 1) {
-                        bank = args[0];
-                    } else {
-                        bank = BEconomy.DEFAULT_BANK;
-                    }
-                    return formatNumberWithThousandsSeparator(
-                            decimalFormat.format(
-                                    getEconomy().getBalance(bank, player.getUniqueId()).join()
-                            ));
-                }))
-        );
-        placeholder.addSubPlaceholder(new Placeholder("raw_balance")
-                .executor(((player, args) -> {
+                    RenderedBalance balance = getBalance(player, bank);
+                    return balance == null ? empty : balance.text();
+                };
+            }
+            case "rank" -> {
+                String bank = bank(rest);
+                String error = checkBank(bank);
+                if (error != null) return player -> error;
+                BEconomy economy = getEconomy();
+                BankHandle handle = economy.bank(bank);
+                return player -> {
                     if (player == null) return "only for players";
-                    String bank;
-                    if (args.length == 1) {
-                        bank = args[0];
-                    } else {
-                        bank = BEconomy.DEFAULT_BANK;
+                    return formatCount(economy.getRank(handle, player.getUniqueId()));
+                };
+            }
+            case "accounts" -> {
+                String bank = bank(rest);
+                String error = checkBank(bank);
+                if (error != null) return player -> error;
+                BEconomy economy = getEconomy();
+                BankHandle handle = economy.bank(bank);
+                return player -> formatCount(economy.getAccountCount(handle));
+            }
+            case "stats" -> {
+                if (rest.length != 2) return player -> "use %bvault_stats_<bank>_<stat>%";
+                String bank = rest[0];
+                String stat = rest[1];
+                String error = checkBank(bank);
+                if (error != null) return player -> error;
+                return switch (stat) {
+                    case "accounts" -> player -> countFormat.format(getStats(bank).accounts(), 0);
+                    case "total" -> player -> moneyFormat.format(getStats(bank).total());
+                    case "mean" -> player -> moneyFormat.format(getStats(bank).mean());
+                    case "median" -> player -> moneyFormat.format(getStats(bank).median());
+                    case "p90" -> player -> moneyFormat.format(getStats(bank).p90());
+                    case "p99" -> player -> moneyFormat.format(getStats(bank).p99());
+                    case "top1share" -> player -> moneyFormat.format(getStats(bank).top1PercentShare() * 100);
+                    default -> {
+                        String unknown = "unknown stat " + stat + ", use accounts, total, mean, median, p90, p99 or top1share";
+                        yield player -> unknown;
                     }
-                    return rawFormat.format(
-                            getEconomy().getBalance(bank, player.getUniqueId()).join()
-                    );
-                }))
-        );
-        placeholder.build();
-    }
-
-    private List<TopInfo> getTop(String bank) {
-        synchronized (this) {
-            var pair = cashedTops.get(bank);
-            if (pair == null || pair.getRight() < System.currentTimeMillis()) {
-                List<TopInfo> list = balTop.getTop(bank, topSize);
-                cashedTops.put(bank, Pair.of(list, System.currentTimeMillis() + cashTime));
-                return list;
+                };
+            }
+            default -> {
+                return UNKNOWN;
             }
-            return pair.getLeft();
         }
     }
 
-    public BEconomy getEconomy() {
-        RegisteredServiceProvider<BEconomy> provider = Bukkit.getServicesManager().getRegistration(BEconomy.class);
-        return Objects.requireNonNull(provider, "Economy provider not found!").getProvider();
+    private Resolver compileTop(String params, String usage, String[] args, boolean nick) {
+        if (args.length != 2) return player -> usage;
+        String bank = args[0];
+        int pos;
+        try {
+            pos = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            plugin.getLogger().log(Level.SEVERE, "", e);
+            String error = usage + "! gotten " + params;
+            return player -> error;
+        }
+        if (nick) {
+            return player -> getTop(bank).nick(pos, empty);
+        }
+        return player -> getTop(bank).balance(pos, emptyBalance);
     }
 
-    @Override
-    public @Nullable String onPlaceholderRequest(Player player, @NotNull String params) {
-        return placeholder.process(player, params.split("_"));
+    private static String bank(String[] args) {
+        return args.length == 1 ? args[0] : BEconomy.DEFAULT_BANK;
     }
 
-    public String formatNumberWithThousandsSeparator(String raw) {
-        StringBuilder formatted = new StringBuilder();
-        String[] parts = raw.split("\\D");
-        String integerPart = parts[0];
-        String decimalPart = (parts.length == 2) ? integerSeparator + parts[1] : "";
+    /**
+     * The checks of {@link BEconomy}, done once when the params are parsed since the cache is read directly.
+     *
+     * @return the error, or null if the bank name is valid.
+     */
+    @Nullable
+    private static String checkBank(String bank) {
+        try {
+            Validate.charactersCheck(bank);
+            Validate.checkToLarge(bank, 16);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
 
-        char[] integerDigits = integerPart.toCharArray();
-        for (int i = integerDigits.length - 1, count = 0; i >= 0; i--, count++) {
-            if (count > 0 && count % 3 == 0) {
-                formatted.append(thousandSeparator);
-            }
-            formatted.append(integerDigits[i]);
+    private RenderedTop getTop(String bank) {
+        long now = System.currentTimeMillis();
+        RenderedTop rendered = renderedTops.get(bank);
+        if (rendered == null || rendered.checkAfter() < now) {
+            TopSnapshot snapshot = balTop.getSnapshot(bank);
+            rendered = rendered != null && rendered.version() == snapshot.version() ?
+                    new RenderedTop(rendered.version(), rendered.nicks(), rendered.balances(), now + cashTime) :
+                    render(snapshot, now + cashTime);
+            renderedTops.put(bank, rendered);
         }
-        return formatted.reverse() + decimalPart;
+        return rendered;
+    }
+
+    private BankStats getStats(String bank) {
+        long now = System.currentTimeMillis();
+        CachedStats cached = cachedStats.get(bank);
+        if (cached == null || cached.checkAfter() < now) {
+            cached = new CachedStats(database.getStats(bank), now + cashTime);
+            cachedStats.put(bank, cached);
+        }
+        return cached.stats();
+    }
+
+    private RenderedTop render(TopSnapshot snapshot, long checkAfter) {
+        String[] nicks = new String[snapshot.size()];
+        String[] balances = new String[snapshot.size()];
+        for (int i = 0; i < nicks.length; i++) {
+            TopInfo info = snapshot.get(i);
+            nicks[i] = info == TopInfo.EMPTY ? empty : info.nickName();
+            balances[i] = moneyFormat.format(info.balance());
+        }
+        return new RenderedTop(snapshot.version(), nicks, balances, checkAfter);
+    }
+
+    /**
+     * Never waits, a count the database has not answered yet shows as {@code emptyPos} until the next refresh.
+     */
+    private String formatCount(CompletableFuture<Long> future) {
+        if (!future.isDone() || future.isCompletedExceptionally()) return empty;
+        return countFormat.format(future.join(), 0);
+    }
+
+    public BEconomy getEconomy() {
+        RegisteredServiceProvider<BEconomy> provider = Bukkit.getServicesManager().getRegistration(BEconomy.class);
+        return Objects.requireNonNull(provider, "Economy provider not found!").getProvider();
     }
 
     @Override
@@ -165,4 +315,26 @@ public class PAPIHook extends PlaceholderExpansion {
         return true;
     }
 
+    private record RenderedTop(long version, String[] nicks, String[] balances, long checkAfter) {
+        private String nick(int pos, String empty) {
+            return pos >= 0 && pos < nicks.length ? nicks[pos] : empty;
+        }
+
+        private String balance(int pos, String empty) {
+            return pos >= 0 && pos < balances.length ? balances[pos] : empty;
+        }
+    }
+
+    private record RenderedBalance(String text, String raw) {
+    }
+
+    private record CachedStats(BankStats stats, long checkAfter) {
+    }
+
+    @FunctionalInterface
+    private interface Resolver {
+        @Nullable
+        String resolve(@Nullable Player player);
+    }
+
 }
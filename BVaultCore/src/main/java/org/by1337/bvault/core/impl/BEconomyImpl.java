@@ -1,18 +1,30 @@
 package org.by1337.bvault.core.impl;
 
 import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.api.TopPage;
 import org.by1337.bvault.api.User;
 import org.by1337.bvault.core.BVaultCore;
 import org.by1337.bvault.core.db.Database;
 import org.by1337.bvault.core.top.BalTop;
+import org.by1337.bvault.core.top.PageCursor;
 import org.by1337.bvault.core.top.TopInfo;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.ToDoubleFunction;
 
 public class BEconomyImpl extends BEconomy {
     private final Database dataBase;
@@ -39,58 +51,199 @@ public class BEconomyImpl extends BEconomy {
 
     /**
      * Withdraws a specified amount of money from the uuid's account in the specified bank.
-     * To be implemented by subclasses.
      *
-     * @param bank   The name of the bank.
+     * @param bank   The handle of the bank.
      * @param player The UUID of the uuid.
      * @param amount The amount of money to withdraw.
      * @return A CompletableFuture containing the new balance after the withdrawal.
      */
     @Override
-    protected CompletableFuture<Double> withdraw0(@NotNull String bank, @NotNull UUID player, double amount) {
-        return CompletableFuture.supplyAsync(() -> {
-            var user = dataBase.getUser(player).join();
-            var result = user.withdraw(bank, amount);
+    protected CompletableFuture<Double> withdraw0(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        withdraw0(bank, player, amount, future::complete, future::completeExceptionally);
+        return future;
+    }
+
+    @Override
+    protected void withdraw0(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        withUser(player, user -> {
+            double result = user.withdraw(bank, amount);
             user.flush();
             return result;
-        });
+        }, onSuccess, onError);
     }
 
     /**
      * Deposits a specified amount of money into the uuid's account in the specified bank.
-     * To be implemented by subclasses.
      *
-     * @param bank   The name of the bank.
+     * @param bank   The handle of the bank.
      * @param player The UUID of the uuid.
      * @param amount The amount of money to deposit.
      * @return A CompletableFuture containing the new balance after the deposit.
      */
     @Override
-    protected CompletableFuture<Double> deposit0(@NotNull String bank, @NotNull UUID player, double amount) {
-        return CompletableFuture.supplyAsync(() -> {
-            var user = dataBase.getUser(player).join();
-            var result = user.deposit(bank, amount);
+    protected CompletableFuture<Double> deposit0(@NotNull BankHandle bank, @NotNull UUID player, double amount) {
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        deposit0(bank, player, amount, future::complete, future::completeExceptionally);
+        return future;
+    }
+
+    @Override
+    protected void deposit0(@NotNull BankHandle bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        withUser(player, user -> {
+            double result = user.deposit(bank, amount);
             user.flush();
             return result;
-        });
+        }, onSuccess, onError);
     }
 
     /**
      * Gets the balance of the uuid's account in the specified bank.
-     * To be implemented by subclasses.
      *
-     * @param bank   The name of the bank.
+     * @param bank   The handle of the bank.
      * @param player The UUID of the uuid.
      * @return A CompletableFuture containing the balance.
      */
+    @Override
+    protected CompletableFuture<Double> getBalance0(@NotNull BankHandle bank, @NotNull UUID player) {
+        CompletableFuture<Double> future = new CompletableFuture<>();
+        getBalance0(bank, player, future::complete, future::completeExceptionally);
+        return future;
+    }
+
+    @Override
+    protected void getBalance0(@NotNull BankHandle bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        withUser(player, user -> user.getBalance(bank), onSuccess, onError);
+    }
+
+    @Override
+    protected OptionalDouble getBalanceIfCached0(@NotNull BankHandle bank, @NotNull UUID player) {
+        var user = dataBase.getCachedUser(player);
+        return user == null ? OptionalDouble.empty() : OptionalDouble.of(user.getBalance(bank));
+    }
+
+    /**
+     * Moves the amount between two users in memory and hands both balances to the database together,
+     * see {@link org.by1337.bvault.core.db.User#transfer(org.by1337.bvault.core.db.User, BankHandle, double, boolean)}.
+     */
+    @Override
+    protected CompletableFuture<Double> transfer0(@NotNull BankHandle bank, @NotNull UUID from, @NotNull UUID to, double amount, boolean requireFunds) {
+        var source = dataBase.getCachedUser(from);
+        var target = dataBase.getCachedUser(to);
+        if (source != null && target != null) {
+            try {
+                return CompletableFuture.completedFuture(source.transfer(target, bank, amount, requireFunds));
+            } catch (Throwable t) {
+                return CompletableFuture.failedFuture(t);
+            }
+        }
+        return dataBase.getUser(from).thenCombine(dataBase.getUser(to), (s, t) -> s.transfer(t, bank, amount, requireFunds));
+    }
+
+    @Override
+    protected CompletableFuture<Map<UUID, Double>> getBalances0(@NotNull BankHandle bank, @NotNull Collection<UUID> players, boolean cache) {
+        return dataBase.getBalances(bank.name(), players, cache);
+    }
+
+    // the variants taking the name, the name checks were done by BEconomy
+
+    @Override
+    protected CompletableFuture<Double> withdraw0(@NotNull String bank, @NotNull UUID player, double amount) {
+        return withdraw0(BankHandle.of(bank), player, amount);
+    }
+
+    @Override
+    protected void withdraw0(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        withdraw0(BankHandle.of(bank), player, amount, onSuccess, onError);
+    }
+
+    @Override
+    protected CompletableFuture<Double> deposit0(@NotNull String bank, @NotNull UUID player, double amount) {
+        return deposit0(BankHandle.of(bank), player, amount);
+    }
+
+    @Override
+    protected void deposit0(@NotNull String bank, @NotNull UUID player, double amount, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        deposit0(BankHandle.of(bank), player, amount, onSuccess, onError);
+    }
+
     @Override
     protected CompletableFuture<Double> getBalance0(@NotNull String bank, @NotNull UUID player) {
-        return CompletableFuture.supplyAsync(() -> dataBase.getUser(player).join().getBalance(bank));
+        return getBalance0(BankHandle.of(bank), player);
+    }
+
+    @Override
+    protected void getBalance0(@NotNull String bank, @NotNull UUID player, @NotNull DoubleConsumer onSuccess, @NotNull Consumer<Throwable> onError) {
+        getBalance0(BankHandle.of(bank), player, onSuccess, onError);
+    }
+
+    @Override
+    protected OptionalDouble getBalanceIfCached0(@NotNull String bank, @NotNull UUID player) {
+        return getBalanceIfCached0(BankHandle.of(bank), player);
+    }
+
+    /**
+     * Runs the action right away for a cached user and on the loading thread otherwise, no extra thread hop.
+     * The callbacks are outside the try, an exception thrown by onSuccess is not reported to onError.
+     */
+    private void withUser(UUID player, ToDoubleFunction<org.by1337.bvault.core.db.User> action,
+                          DoubleConsumer onSuccess, Consumer<Throwable> onError) {
+        var cached = dataBase.getCachedUser(player);
+        if (cached != null) {
+            apply(cached, action, onSuccess, onError);
+            return;
+        }
+        dataBase.getUser(player).whenComplete((user, t) -> {
+            if (t != null) {
+                onError.accept(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            } else {
+                apply(user, action, onSuccess, onError);
+            }
+        });
+    }
+
+    private static void apply(org.by1337.bvault.core.db.User user, ToDoubleFunction<org.by1337.bvault.core.db.User> action,
+                              DoubleConsumer onSuccess, Consumer<Throwable> onError) {
+        double result;
+        try {
+            result = action.applyAsDouble(user);
+        } catch (Throwable t) {
+            onError.accept(t);
+            return;
+        }
+        onSuccess.accept(result);
     }
 
     @Override
     protected CompletableFuture<Set<String>> getExistedBanks0(@NotNull UUID player) {
-        return CompletableFuture.supplyAsync(() -> dataBase.getUser(player).join().getExistedBanks());
+        return dataBase.getUser(player).thenApply(user -> user.getExistedBanks());
+    }
+
+    @Override
+    protected CompletableFuture<TopPage> getTopPage0(@NotNull String bank, @Nullable String cursor, int pageSize) {
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        return dataBase.getTopPage(bank, after, pageSize).thenApply(page -> {
+            List<User> users = new ArrayList<>(page.entries().size());
+            for (TopInfo topInfo : page.entries()) {
+                users.add(new User(topInfo.nickName(), topInfo.uuid(), topInfo.balance()));
+            }
+            return new TopPage(users, after == null ? 0 : after.pos() + 1, page.next() == null ? null : page.next().encode());
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Long> getRank0(@NotNull String bank, @NotNull UUID player) {
+        return dataBase.getRank(bank, player);
+    }
+
+    @Override
+    protected CompletableFuture<Long> getAccountCount0(@NotNull String bank) {
+        return dataBase.countAccounts(bank);
+    }
+
+    @Override
+    protected @NotNull BankStats getStats0(@NotNull String bank) {
+        return dataBase.getStats(bank);
     }
 
     @Override
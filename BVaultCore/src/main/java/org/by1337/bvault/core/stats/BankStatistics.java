@@ -0,0 +1,199 @@
+package org.by1337.bvault.core.stats;
+
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.db.BankScales;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Money supply, account count and balance distribution of every bank, kept up to date from the balance flushes
+ * and rebuilt from the database now and then, see {@link #startRebuild()}.
+ * Sums and counts are exact, quantiles come from a {@link QuantileSketch}.
+ */
+public class BankStatistics {
+    private static final double ACCURACY = 0.01;
+    private final Object lock = new Object();
+    private final BankScales scales;
+    private final Map<String, Aggregate> banks = new HashMap<>();
+    // the rebuild in progress, guarded by lock
+    private Rebuild rebuild;
+
+    public BankStatistics(BankScales scales) {
+        this.scales = scales;
+    }
+
+    /**
+     * @param previous the balance the database had before, or null if the account is new.
+     * @param balance  the new balance in minor units.
+     */
+    public void update(@NotNull String bank, @NotNull UUID uuid, @Nullable Long previous, long balance) {
+        synchronized (lock) {
+            aggregate(banks, bank).update(previous, balance);
+            if (rebuild != null) {
+                rebuild.update(bank, uuid, previous, balance);
+            }
+        }
+    }
+
+    /**
+     * Forgets the statistics after the balances were deleted, and cancels a rebuild that may have read them.
+     *
+     * @param bank the bank, or null for every bank.
+     */
+    public void clear(@Nullable String bank) {
+        synchronized (lock) {
+            if (bank == null) {
+                banks.clear();
+            } else {
+                banks.remove(bank);
+            }
+            if (rebuild != null) {
+                rebuild.aborted = true;
+            }
+        }
+    }
+
+    public BankStats getStats(@NotNull String bank) {
+        long accounts;
+        long total;
+        double median;
+        double p90;
+        double p99;
+        double top;
+        synchronized (lock) {
+            Aggregate aggregate = banks.get(bank);
+            if (aggregate == null) {
+                return new BankStats(0, 0, 0, 0, 0, 0);
+            }
+            accounts = aggregate.count;
+            total = aggregate.sum;
+            median = aggregate.sketch.quantile(0.5);
+            p90 = aggregate.sketch.quantile(0.9);
+            p99 = aggregate.sketch.quantile(0.99);
+            top = aggregate.sketch.sumOfLargest(Math.max(1, (accounts + 99) / 100));
+        }
+        double unit = scales.toDouble(bank, 1);
+        return new BankStats(
+                accounts,
+                scales.toDouble(bank, total),
+                median * unit,
+                p90 * unit,
+                p99 * unit,
+                total == 0 ? 0 : top / total
+        );
+    }
+
+    /**
+     * Starts to collect the statistics anew. Balances flushed from now on must be in the database before the
+     * rows are read, and the rows must be passed to {@link Rebuild#accept(String, UUID, long)} ordered by uuid.
+     *
+     * @return the rebuild, or null if another rebuild is running.
+     */
+    @Nullable
+    public Rebuild startRebuild() {
+        synchronized (lock) {
+            if (rebuild != null) return null;
+            rebuild = new Rebuild();
+            return rebuild;
+        }
+    }
+
+    private static Aggregate aggregate(Map<String, Aggregate> map, String bank) {
+        return map.computeIfAbsent(bank, b -> new Aggregate());
+    }
+
+    public class Rebuild {
+        private final Map<String, Aggregate> result = new HashMap<>();
+        // the latest balances flushed for rows the scan has not reached yet, they replace what the scan reads
+        private final Map<Key, Long> ahead = new HashMap<>();
+        private final Set<String> cursorBanks = new HashSet<>();
+        private UUID cursor;
+        private boolean aborted;
+
+        private Rebuild() {
+        }
+
+        /**
+         * Flushes of rows already read are applied like to the live statistics,
+         * the read row holds exactly the balance flushed before.
+         */
+        private void update(String bank, UUID uuid, @Nullable Long previous, long balance) {
+            if (isRead(bank, uuid)) {
+                aggregate(result, bank).update(previous, balance);
+            } else {
+                ahead.put(new Key(bank, uuid), balance);
+            }
+        }
+
+        private boolean isRead(String bank, UUID uuid) {
+            if (cursor == null) return false;
+            // unsigned, in the order of the BINARY(16) uuid columns
+            int cmp = Long.compareUnsigned(uuid.getMostSignificantBits(), cursor.getMostSignificantBits());
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(uuid.getLeastSignificantBits(), cursor.getLeastSignificantBits());
+            }
+            return cmp < 0 || cmp == 0 && cursorBanks.contains(bank);
+        }
+
+        public void accept(String bank, UUID uuid, long balance) {
+            synchronized (lock) {
+                if (!uuid.equals(cursor)) {
+                    cursor = uuid;
+                    cursorBanks.clear();
+                }
+                cursorBanks.add(bank);
+                Long newer = ahead.remove(new Key(bank, uuid));
+                aggregate(result, bank).update(null, newer != null ? newer : balance);
+            }
+        }
+
+        /**
+         * Replaces the statistics with the rebuilt ones.
+         *
+         * @return false if the balances were dropped meanwhile and the result was thrown away.
+         */
+        public boolean finish() {
+            synchronized (lock) {
+                if (rebuild == this) {
+                    rebuild = null;
+                }
+                if (aborted) return false;
+                // flushed after the scan passed them, so the rows were not in the database yet
+                ahead.forEach((key, balance) -> aggregate(result, key.bank()).update(null, balance));
+                banks.clear();
+                banks.putAll(result);
+                return true;
+            }
+        }
+
+        public void abort() {
+            synchronized (lock) {
+                if (rebuild == this) {
+                    rebuild = null;
+                }
+            }
+        }
+    }
+
+    private record Key(String bank, UUID uuid) {
+    }
+
+    private static class Aggregate {
+        private final QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        private long count;
+        private long sum;
+
+        private void update(@Nullable Long previous, long balance) {
+            if (previous == null) {
+                count++;
+            } else {
+                sum -= previous;
+                sketch.remove(previous);
+            }
+            sum += balance;
+            sketch.add(balance);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.by1337.bvault.core.stats;
+
+/**
+ * A histogram with logarithmic buckets: every value is counted in the bucket {@code (gamma^(i-1), gamma^i]}
+ * of its magnitude, so any quantile is known within {@code accuracy} of its true value.
+ * <p>
+ * Unlike sampling sketches it takes removals, which a balance that changed needs, and two sketches
+ * merge by adding their buckets. The size is fixed, about 35 KB for 1% accuracy over the whole long range.
+ * <p>
+ * Not thread-safe.
+ */
+public class QuantileSketch {
+    private final double gamma;
+    private final double logGamma;
+    // positive and negative values by the bucket of their magnitude
+    private final long[] positive;
+    private final long[] negative;
+    private long zeros;
+    private long count;
+
+    /**
+     * @param accuracy the relative error of quantiles, 0.01 for 1%.
+     */
+    public QuantileSketch(double accuracy) {
+        gamma = (1 + accuracy) / (1 - accuracy);
+        logGamma = Math.log(gamma);
+        int buckets = index(Long.MAX_VALUE) + 1;
+        positive = new long[buckets];
+        negative = new long[buckets];
+    }
+
+    public void add(long value) {
+        update(value, 1);
+    }
+
+    public void remove(long value) {
+        update(value, -1);
+    }
+
+    private void update(long value, int delta) {
+        if (value > 0) {
+            positive[index(value)] += delta;
+        } else if (value < 0) {
+            negative[index(value == Long.MIN_VALUE ? Long.MAX_VALUE : -value)] += delta;
+        } else {
+            zeros += delta;
+        }
+        count += delta;
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Sketches of different accuracy!");
+        }
+        for (int i = 0; i < positive.length; i++) {
+            positive[i] += other.positive[i];
+            negative[i] += other.negative[i];
+        }
+        zeros += other.zeros;
+        count += other.count;
+    }
+
+    /**
+     * @param q the quantile, 0.5 for the median.
+     * @return the estimated value at the quantile, or 0 if the sketch is empty.
+     */
+    public double quantile(double q) {
+        if (count <= 0) return 0;
+        long rank = (long) (Math.min(1, Math.max(0, q)) * (count - 1));
+        long seen = 0;
+        for (int i = negative.length - 1; i >= 0; i--) {
+            seen += negative[i];
+            if (seen > rank) return -value(i);
+        }
+        seen += zeros;
+        if (seen > rank) return 0;
+        for (int i = 0; i < positive.length; i++) {
+            seen += positive[i];
+            if (seen > rank) return value(i);
+        }
+        return value(positive.length - 1);
+    }
+
+    /**
+     * @return the estimated sum of the {@code n} largest values.
+     */
+    public double sumOfLargest(long n) {
+        double sum = 0;
+        long left = Math.min(n, count);
+        for (int i = positive.length - 1; i >= 0 && left > 0; i--) {
+            long taken = Math.min(left, positive[i]);
+            sum += taken * value(i);
+            left -= taken;
+        }
+        left -= Math.min(left, zeros);
+        for (int i = 0; i < negative.length && left > 0; i++) {
+            long taken = Math.min(left, negative[i]);
+            sum -= taken * value(i);
+            left -= taken;
+        }
+        return sum;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    private int index(long magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    // the middle of the bucket, within the accuracy of every value in it
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+}
@@ -2,152 +2,423 @@ package org.by1337.bvault.core.top;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.bukkit.plugin.Plugin;
-import org.jetbrains.annotations.NotNull;
+import org.by1337.bvault.core.db.BankScales;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
+/**
+ * The richest {@code topSize} players of every bank, kept in memory from the balance flushes.
+ * Every bank has its own {@link RankedIndex} and its own lock, updates of one bank do not block another.
+ * Readers get an immutable {@link TopSnapshot} and never take a lock.
+ * <p>
+ * Balance updates are queued per bank, keeping only the latest balance of every player,
+ * and applied in batches by a single updater thread.
+ */
 public class BalTop implements Closeable {
-    private final Object lock = new Object();
     private final Plugin plugin;
     private final int topSize;
-    private final ExecutorService ioExecutor;
-    private final Map<String, Top> topMap = new HashMap<>();
+    // runs the drains, one thread keeps the updates of a player in order
+    private final ExecutorService updater;
+    private final BankScales scales;
+    private final Map<String, Top> topMap = new ConcurrentHashMap<>();
+    private final Map<String, Updates> updates = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder applyNanos = new LongAdder();
 
-    public BalTop(Plugin plugin, ExecutorService ioExecutor, int topSize) {
+    /**
+     * @param updater the executor on which queued updates are applied, it must run them one at a time.
+     */
+    public BalTop(Plugin plugin, ExecutorService updater, BankScales scales, int topSize) {
         this.plugin = plugin;
         this.topSize = topSize;
-        this.ioExecutor = ioExecutor;
+        this.updater = updater;
+        this.scales = scales;
     }
 
-    public BalTop(Plugin plugin, int topSize) {
+    public BalTop(Plugin plugin, ExecutorService updater, int topSize) {
+        this(plugin, updater, new BankScales(), topSize);
+    }
+
+    public BalTop(Plugin plugin, BankScales scales, int topSize) {
         this(
                 plugin,
-                Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("BVault balTop IO #%d").build()),
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("BVault balTop updater").build()),
+                scales,
                 topSize
         );
     }
 
+    public BalTop(Plugin plugin, int topSize) {
+        this(plugin, new BankScales(), topSize);
+    }
+
     public void clear() {
-        synchronized (lock) {
-            topMap.clear();
+        for (Updates queue : updates.values()) {
+            queue.pending.clear();
         }
+        // nothing is left in the database, every top is complete while empty
+        topMap.replaceAll((bank, top) -> new Top(bank, true));
     }
 
     public void clearBalancesIn(String bank) {
-        synchronized (lock) {
-            topMap.remove(bank);
+        Updates queue = updates.get(bank);
+        if (queue != null) {
+            queue.pending.clear();
         }
+        topMap.put(bank, new Top(bank, true));
     }
 
-
     public List<TopInfo> getTop(String bank, int limit) {
-        List<TopInfo> list = new ArrayList<>();
-        synchronized (lock) {
-            var top = topMap.get(bank);
-            int x = 0;
-            if (top != null) {
-                for (User user : top.top) {
-                    if (x >= limit) break;
-                    list.add(new TopInfo(
-                            user.uuid,
-                            user.name,
-                            user.balance,
-                            x
-                    ));
-                    x++;
+        TopSnapshot snapshot = getSnapshot(bank);
+        List<TopInfo> list = new ArrayList<>(limit);
+        for (int x = 0; x < limit; x++) {
+            list.add(snapshot.get(x));
+        }
+        return list;
+    }
+
+    /**
+     * @return the current top list of the bank. The snapshot never changes, call again for a newer one.
+     */
+    public TopSnapshot getSnapshot(String bank) {
+        Top top = topMap.get(bank);
+        return top == null ? TopSnapshot.EMPTY : top.snapshot;
+    }
+
+    /**
+     * Serves a leaderboard page from the top list.
+     *
+     * @param after the last player of the previous page, or null for the first page.
+     * @return the page, or null if it does not fit in the top list or the top list has changed since {@code after}.
+     */
+    @Nullable
+    public LeaderboardPage getPage(String bank, @Nullable PageCursor after, int limit) {
+        Top top = topMap.get(bank);
+        if (top == null || top.dirty) return null;
+        TopSnapshot snapshot = top.snapshot;
+        int from = 0;
+        if (after != null) {
+            TopInfo last = snapshot.get(after.pos());
+            if (!after.uuid().equals(last.uuid()) || snapshot.minorBalance(after.pos()) != after.balance()) return null;
+            from = after.pos() + 1;
+        }
+        int to = from + limit;
+        if (to > snapshot.size()) {
+            // the rest of the bank is in the top only if the top was never full
+            if (snapshot.size() >= topSize || !top.complete) return null;
+            to = snapshot.size();
+        }
+        List<TopInfo> entries = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            entries.add(snapshot.get(i));
+        }
+        PageCursor next = null;
+        if (to > from && (to < snapshot.size() || snapshot.size() >= topSize)) {
+            TopInfo last = snapshot.get(to - 1);
+            next = new PageCursor(to - 1, snapshot.minorBalance(to - 1), last.uuid());
+        }
+        return new LeaderboardPage(entries, next);
+    }
+
+    /**
+     * Counts the players of the bank with a higher balance, from memory.
+     *
+     * @param balance the balance in minor units, see {@link BankScales}.
+     * @return the count, or -1 if the balance is below the top list or the top list may miss players, and only the database knows.
+     */
+    public int countAbove(String bank, long balance) {
+        Top top = topMap.get(bank);
+        if (top == null) return -1;
+        synchronized (top) {
+            // a listed player may have dropped below players outside the top
+            if (top.dirty) return -1;
+            RankedIndex index = top.index;
+            if (index.size() < topSize) {
+                return top.complete ? index.countAbove(balance) : -1;
+            }
+            // everyone above the last position is in the top
+            return balance >= index.last().balance() ? index.countAbove(balance) : -1;
+        }
+    }
+
+    /**
+     * Whether the top list may miss players, because a listed player's balance dropped or it was never read from the database.
+     */
+    public boolean isDirty(String bank) {
+        Top top = topMap.get(bank);
+        return top == null || top.dirty;
+    }
+
+    /**
+     * The players listed in the top list of the bank right now.
+     */
+    public Set<UUID> getListed(String bank) {
+        Top top = topMap.get(bank);
+        Set<UUID> listed = new HashSet<>();
+        if (top == null) return listed;
+        synchronized (top) {
+            for (RankedIndex.Entry entry : top.index.range(0, top.index.size())) {
+                listed.add(entry.uuid());
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * Merges the richest players as stored in the database into the top list of the bank,
+     * filling positions freed by players whose balance dropped. Balances that are newer in memory win over the database.
+     *
+     * @param slice    the richest players of the bank read from the database, richest first.
+     * @param inMemory returns the balance of a player that the database may not have yet, or null.
+     */
+    public void reconcile(String bank, List<RankedIndex.Entry> slice, Function<UUID, Long> inMemory) {
+        Top top = topMap.computeIfAbsent(bank, b -> new Top(b, false));
+        synchronized (top) {
+            Map<UUID, RankedIndex.Entry> stored = new HashMap<>();
+            for (RankedIndex.Entry entry : slice) {
+                stored.put(entry.uuid(), entry);
+            }
+            boolean changed = false;
+            // listed players the database no longer puts in the top go first, so that the top has room
+            for (RankedIndex.Entry entry : top.index.range(0, top.index.size())) {
+                if (stored.containsKey(entry.uuid())) continue;
+                Long balance = inMemory.apply(entry.uuid());
+                if (balance == null) {
+                    top.index.remove(entry.uuid());
+                    changed = true;
+                } else {
+                    changed |= top.put(entry.uuid(), entry.name(), balance);
+                }
+            }
+            for (RankedIndex.Entry entry : slice) {
+                Long balance = inMemory.apply(entry.uuid());
+                String name = entry.name();
+                if (name == null) {
+                    RankedIndex.Entry current = top.index.getEntry(entry.uuid());
+                    name = current == null ? null : current.name();
                 }
+                changed |= top.put(entry.uuid(), name, balance == null ? entry.balance() : balance);
             }
-            for (; x < limit; x++) {
-                list.add(TopInfo.EMPTY);
+            top.complete = true;
+            top.dirty = false;
+            top.restored = false;
+            if (changed) {
+                top.publish();
             }
         }
-        return list;
     }
 
     public void updateBalance(UUID player, double balance, String bank, String nickName) {
-        ioExecutor.execute(() -> updateBalance0(player, balance, bank, nickName));
+        updateBalance(player, scales.toMinor(bank, balance), bank, nickName);
     }
 
-    private void updateBalance0(UUID player, double balance, String bank, String nickName) {
-        Top top;
-        User oldUser;
-        User user;
-        synchronized (lock) {
-            top = topMap.computeIfAbsent(bank, Top::new);
-            oldUser = top.users.get(player);
+    /**
+     * @param balance the balance in minor units, see {@link BankScales}.
+     */
+    public void updateBalance(UUID player, long balance, String bank, String nickName) {
+        Updates queue = updates.computeIfAbsent(bank, b -> new Updates());
+        if (queue.pending.put(player, new Update(nickName, balance, System.nanoTime())) != null) {
+            coalesced.increment();
         }
-        if (oldUser == null) {
-            user = new User(player, nickName, balance);
-        } else {
-            user = new User(player, nickName, balance);
+        if (queue.scheduled.compareAndSet(false, true)) {
+            try {
+                updater.execute(() -> drain(bank, queue));
+            } catch (RejectedExecutionException e) {
+                queue.scheduled.set(false);
+            }
         }
-        synchronized (lock) {
-            top.addUser(user);
+    }
+
+    private void drain(String bank, Updates queue) {
+        // reset first, an update queued after this point schedules the next drain
+        queue.scheduled.set(false);
+        Top top = topMap.computeIfAbsent(bank, b -> new Top(b, false));
+        synchronized (top) {
+            boolean changed = false;
+            for (UUID uuid : queue.pending.keySet()) {
+                // the latest balance, even if it was replaced after the iteration began
+                Update update = queue.pending.remove(uuid);
+                if (update == null) continue;
+                changed |= top.put(uuid, update.name(), update.balance());
+                applied.increment();
+                applyNanos.add(System.nanoTime() - update.queuedAt());
+            }
+            if (changed) {
+                top.publish();
+            }
         }
     }
 
+    /**
+     * Saves every top list, so that {@link #loadSnapshots(File)} can show them right after a restart.
+     */
+    public void saveSnapshots(File file) throws IOException {
+        List<TopSnapshotFile.Bank> banks = new ArrayList<>();
+        for (Map.Entry<String, Top> entry : topMap.entrySet()) {
+            String bank = entry.getKey();
+            TopSnapshot snapshot = entry.getValue().snapshot;
+            List<RankedIndex.Entry> entries = new ArrayList<>(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                TopInfo info = snapshot.get(i);
+                entries.add(new RankedIndex.Entry(info.uuid(), info.nickName(), snapshot.minorBalance(i)));
+            }
+            banks.add(new TopSnapshotFile.Bank(bank, scales.getScale(bank), entries));
+        }
+        TopSnapshotFile.write(file, banks);
+    }
+
+    /**
+     * Restores the top lists saved by {@link #saveSnapshots(File)}. They are shown at once and stay dirty
+     * until they have been reconciled with the database, see {@link #isRestored(String)}.
+     *
+     * @return the number of restored banks.
+     * @throws IOException if the file cannot be read or is damaged, nothing is restored then.
+     */
+    public int loadSnapshots(File file) throws IOException {
+        List<TopSnapshotFile.Bank> banks = TopSnapshotFile.read(file);
+        for (TopSnapshotFile.Bank bank : banks) {
+            // the scale of a bank never changes once it exists, the saved one is what the database has
+            scales.setScale(bank.name(), bank.scale());
+            Top top = new Top(bank.name(), false);
+            synchronized (top) {
+                for (RankedIndex.Entry entry : bank.entries()) {
+                    top.put(entry.uuid(), entry.name(), entry.balance());
+                }
+                top.restored = true;
+                top.publish();
+            }
+            topMap.putIfAbsent(bank.name(), top);
+        }
+        return banks.size();
+    }
+
+    /**
+     * Whether the top list was restored from a saved file and has not been reconciled with the database since.
+     */
+    public boolean isRestored(String bank) {
+        Top top = topMap.get(bank);
+        return top != null && top.restored;
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        int depth = 0;
+        for (Updates queue : updates.values()) {
+            depth += queue.pending.size();
+        }
+        metrics.put("balTop.queueDepth", depth);
+        metrics.put("balTop.applied", applied.sum());
+        metrics.put("balTop.coalesced", coalesced.sum());
+        long count = applied.sum();
+        metrics.put("balTop.averageApplyMillis", count == 0 ? 0 : applyNanos.sum() / 1_000_000D / count);
+        return metrics;
+    }
+
+    /**
+     * @param users the richest players of the bank as read from the database.
+     */
     public void setTop(List<TopInfo> users, String bank) {
-        synchronized (lock) {
-            Top top = new Top(bank);
+        Top top = new Top(bank, true);
+        synchronized (top) {
             for (TopInfo user : users) {
                 if (user != TopInfo.EMPTY) {
-                    top.addUser(new User(user.uuid(), user.nickName(), user.balance()));
+                    top.put(user.uuid(), user.nickName(), scales.toMinor(bank, user.balance()));
                 }
             }
-            topMap.put(bank, top);
+            top.publish();
         }
+        topMap.put(bank, top);
     }
 
     public int getTopSize() {
         return topSize;
     }
 
+    /**
+     * Stops the updater after the queued updates have been applied.
+     */
     @Override
     public void close() {
-        ioExecutor.shutdown();
+        updater.shutdown();
+        try {
+            if (!updater.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for the balTop updater!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private class Top {
-        private final TreeSet<BalTop.User> top = new TreeSet<>(BalTop.User::compareTo);
-        private final Map<UUID, BalTop.User> users = new HashMap<>();
+        private final RankedIndex index = new RankedIndex();
         private final String bank;
+        // whether the top was read from the database, then a top that is not full holds every player of the bank
+        private volatile boolean complete;
+        // set when a listed balance drops, a player outside the top may now be richer
+        private volatile boolean dirty;
+        private volatile boolean restored;
+        private volatile TopSnapshot snapshot = TopSnapshot.EMPTY;
 
-        public Top(String bank) {
+        public Top(String bank, boolean complete) {
             this.bank = bank;
+            this.complete = complete;
+            this.dirty = !complete;
         }
 
-        private void addUser(BalTop.User user) {
-            if (top.isEmpty() ||
-                top.last().balance < user.balance ||
-                users.containsKey(user.uuid) ||
-                top.size() < topSize
-            ) {
-                top.removeIf(u -> u.uuid.equals(user.uuid));
-                if (!top.add(user)) {
-                    throw new IllegalStateException("Failed to add user into top!", new Throwable());
+        /**
+         * @return whether the top has changed.
+         */
+        private boolean put(UUID uuid, String name, long balance) {
+            RankedIndex.Entry current = index.getEntry(uuid);
+            if (current != null) {
+                if (current.balance() == balance && Objects.equals(current.name(), name)) return false;
+                if (balance < current.balance() && index.size() >= topSize) {
+                    dirty = true;
                 }
-                users.put(user.uuid, user);
-                trim();
+            } else {
+                RankedIndex.Entry last = index.last();
+                if (last != null && last.balance() >= balance && index.size() >= topSize) return false;
+            }
+            index.upsert(uuid, name, balance);
+            while (index.size() > topSize) {
+                index.remove(index.last().uuid());
             }
+            return true;
         }
 
-        private void trim() {
-            while (top.size() > topSize) {
-                var last = top.last();
-                top.remove(last);
-                users.remove(last.uuid);
+        private void publish() {
+            List<RankedIndex.Entry> entries = index.range(0, topSize);
+            TopInfo[] infos = new TopInfo[entries.size()];
+            long[] balances = new long[infos.length];
+            for (int i = 0; i < infos.length; i++) {
+                RankedIndex.Entry entry = entries.get(i);
+                infos[i] = new TopInfo(entry.uuid(), entry.name(), scales.toDouble(bank, entry.balance()), i);
+                balances[i] = entry.balance();
             }
+            snapshot = new TopSnapshot(infos, balances, versions.incrementAndGet());
         }
     }
 
-    record User(UUID uuid, String name, double balance) implements Comparable<BalTop.User> {
-        @Override
-        public int compareTo(@NotNull BalTop.User o) {
-            var i = Double.compare(o.balance, balance);
-            return i == 0 ? uuid.compareTo(o.uuid) : i;
-        }
+    private record Update(String name, long balance, long queuedAt) {
+    }
+
+    private static class Updates {
+        private final Map<UUID, Update> pending = new ConcurrentHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
     }
 }
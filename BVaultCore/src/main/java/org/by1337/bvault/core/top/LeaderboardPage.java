@@ -0,0 +1,12 @@
+package org.by1337.bvault.core.top;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * @param entries the players on the page, richest first, with their positions in the bank.
+ * @param next    the cursor of the next page, or null if this is the last page.
+ */
+public record LeaderboardPage(List<TopInfo> entries, @Nullable PageCursor next) {
+}
@@ -0,0 +1,31 @@
+package org.by1337.bvault.core.top;
+
+import java.util.UUID;
+
+/**
+ * The last player of a leaderboard page, the next page starts right after it.
+ *
+ * @param pos     the position of the player, 0 for the richest.
+ * @param balance the balance of the player in minor units.
+ */
+public record PageCursor(int pos, long balance, UUID uuid) {
+
+    public String encode() {
+        return pos + ":" + balance + ":" + uuid;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor was not made by {@link #encode()}.
+     */
+    public static PageCursor decode(String cursor) {
+        String[] parts = cursor.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        try {
+            return new PageCursor(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), UUID.fromString(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.by1337.bvault.core.top;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Players ordered by balance, highest first, ties broken by uuid in the byte order the database uses.
+ * An order-statistic treap (every node knows the size of its subtree) plus a uuid to node map,
+ * so upsert, remove, rank and positional reads are O(log n), ranges O(log n + k).
+ * <p>
+ * Not thread-safe.
+ */
+public class RankedIndex {
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private final Random random = new Random();
+    private Node root;
+
+    /**
+     * Adds the player or moves them to their new position.
+     */
+    public void upsert(UUID uuid, String name, long balance) {
+        Node old = nodes.get(uuid);
+        if (old != null) {
+            if (old.balance == balance) {
+                old.name = name;
+                return;
+            }
+            root = delete(root, old);
+        }
+        Node node = new Node(uuid, name, balance, random.nextInt());
+        nodes.put(uuid, node);
+        Node[] split = split(root, node, false);
+        root = merge(merge(split[0], node), split[1]);
+    }
+
+    public boolean remove(UUID uuid) {
+        Node node = nodes.remove(uuid);
+        if (node == null) return false;
+        root = delete(root, node);
+        return true;
+    }
+
+    public boolean contains(UUID uuid) {
+        return nodes.containsKey(uuid);
+    }
+
+    /**
+     * @return the position of the player, 0 for the richest, or -1 if the player is not in the index.
+     */
+    public int rank(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node == null) return -1;
+        int rank = 0;
+        Node current = root;
+        while (current != null) {
+            int cmp = compare(node, current);
+            if (cmp < 0) {
+                current = current.left;
+            } else if (cmp > 0) {
+                rank += size(current.left) + 1;
+                current = current.right;
+            } else {
+                return rank + size(current.left);
+            }
+        }
+        throw new IllegalStateException("Node is not in the tree!");
+    }
+
+    /**
+     * @return the number of players with a balance strictly greater than {@code balance}.
+     */
+    public int countAbove(long balance) {
+        int count = 0;
+        Node current = root;
+        while (current != null) {
+            if (current.balance > balance) {
+                count += size(current.left) + 1;
+                current = current.right;
+            } else {
+                current = current.left;
+            }
+        }
+        return count;
+    }
+
+    @Nullable
+    public Entry get(int index) {
+        if (index < 0 || index >= size()) return null;
+        Node current = root;
+        while (true) {
+            int left = size(current.left);
+            if (index < left) {
+                current = current.left;
+            } else if (index > left) {
+                index -= left + 1;
+                current = current.right;
+            } else {
+                return current.toEntry();
+            }
+        }
+    }
+
+    @Nullable
+    public Entry getEntry(UUID uuid) {
+        Node node = nodes.get(uuid);
+        return node == null ? null : node.toEntry();
+    }
+
+    /**
+     * @return up to {@code limit} players starting at position {@code from}.
+     */
+    public List<Entry> range(int from, int limit) {
+        List<Entry> result = new ArrayList<>(Math.max(0, Math.min(limit, size() - from)));
+        collect(root, from, from + limit, 0, result);
+        return result;
+    }
+
+    @Nullable
+    public Entry last() {
+        return get(size() - 1);
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public void clear() {
+        nodes.clear();
+        root = null;
+    }
+
+    private void collect(Node node, int from, int to, int offset, List<Entry> out) {
+        if (node == null || from >= to) return;
+        int index = offset + size(node.left);
+        if (from < index) {
+            collect(node.left, from, to, offset, out);
+        }
+        if (index >= from && index < to) {
+            out.add(node.toEntry());
+        }
+        if (to > index + 1) {
+            collect(node.right, from, to, index + 1, out);
+        }
+    }
+
+    private static Node delete(Node root, Node node) {
+        Node[] lower = split(root, node, false);
+        Node[] upper = split(lower[1], node, true);
+        // upper[0] is exactly the node
+        return merge(lower[0], upper[1]);
+    }
+
+    /**
+     * Splits into nodes before {@code key} and the rest, or with {@code inclusive} into nodes up to and including it and the rest.
+     */
+    private static Node[] split(Node node, Node key, boolean inclusive) {
+        if (node == null) return new Node[2];
+        int cmp = compare(node, key);
+        if (cmp < 0 || inclusive && cmp == 0) {
+            Node[] parts = split(node.right, key, inclusive);
+            node.right = parts[0];
+            node.update();
+            parts[0] = node;
+            return parts;
+        } else {
+            Node[] parts = split(node.left, key, inclusive);
+            node.left = parts[1];
+            node.update();
+            parts[1] = node;
+            return parts;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private static int compare(Node a, Node b) {
+        int i = Long.compare(b.balance, a.balance);
+        if (i != 0) return i;
+        // unsigned, like the comparison of the BINARY(16) uuid columns
+        i = Long.compareUnsigned(a.uuid.getMostSignificantBits(), b.uuid.getMostSignificantBits());
+        return i != 0 ? i : Long.compareUnsigned(a.uuid.getLeastSignificantBits(), b.uuid.getLeastSignificantBits());
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    public record Entry(UUID uuid, String name, long balance) {
+    }
+
+    private static class Node {
+        private final UUID uuid;
+        private final long balance;
+        private final int priority;
+        private String name;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(UUID uuid, String name, long balance, int priority) {
+            this.uuid = uuid;
+            this.name = name;
+            this.balance = balance;
+            this.priority = priority;
+        }
+
+        private void update() {
+            size = 1 + RankedIndex.size(left) + RankedIndex.size(right);
+        }
+
+        private Entry toEntry() {
+            return new Entry(uuid, name, balance);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.by1337.bvault.core.top;
+
+/**
+ * An immutable top list of one bank. {@link BalTop} publishes a new snapshot whenever the top changes,
+ * so readers neither lock nor copy.
+ */
+public final class TopSnapshot {
+    public static final TopSnapshot EMPTY = new TopSnapshot(new TopInfo[0], new long[0], 0);
+    private final TopInfo[] entries;
+    // the exact balances in minor units, for page cursors
+    private final long[] balances;
+    private final long version;
+
+    TopSnapshot(TopInfo[] entries, long[] balances, long version) {
+        this.entries = entries;
+        this.balances = balances;
+        this.version = version;
+    }
+
+    /**
+     * @return the player at the position, 0 for the richest, or {@link TopInfo#EMPTY} if the position is empty.
+     */
+    public TopInfo get(int pos) {
+        return pos >= 0 && pos < entries.length ? entries[pos] : TopInfo.EMPTY;
+    }
+
+    long minorBalance(int pos) {
+        return balances[pos];
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return a number that grows with every published snapshot, across all banks.
+     */
+    public long version() {
+        return version;
+    }
+}
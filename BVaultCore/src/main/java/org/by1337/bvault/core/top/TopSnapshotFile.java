@@ -0,0 +1,152 @@
+package org.by1337.bvault.core.top;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The binary file the top lists are saved to, so that they can be shown right after a restart.
+ * <pre>
+ * int magic, int version, int bank count
+ * per bank: name, int scale, int entry count
+ *   per entry: long uuid most, long uuid least, long balance in minor units, name or -1
+ * long CRC32 of everything before it
+ * </pre>
+ * Names are a short byte length followed by UTF-8 bytes.
+ */
+final class TopSnapshotFile {
+    private static final int MAGIC = 0x42565450; // BVTP
+    private static final int VERSION = 1;
+
+    private TopSnapshotFile() {
+    }
+
+    record Bank(String name, int scale, List<RankedIndex.Entry> entries) {
+    }
+
+    /**
+     * Writes to a temporary file first, so that a crash never leaves half a file behind.
+     */
+    static void write(File file, Collection<Bank> banks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(banks.size());
+        for (Bank bank : banks) {
+            writeString(out, bank.name());
+            out.writeInt(bank.scale());
+            out.writeInt(bank.entries().size());
+            for (RankedIndex.Entry entry : bank.entries()) {
+                out.writeLong(entry.uuid().getMostSignificantBits());
+                out.writeLong(entry.uuid().getLeastSignificantBits());
+                out.writeLong(entry.balance());
+                writeString(out, entry.name());
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path target = file.toPath();
+        Path tmp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the banks in the file, or an empty list if there is no file.
+     * @throws IOException if the file cannot be read or is damaged.
+     */
+    static List<Bank> read(File file) throws IOException {
+        if (!file.exists()) return Collections.emptyList();
+        // read into the heap, a mapping would hold the file open until collected and fail the next save's move on Windows
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too large file " + file.getName());
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) break;
+            }
+            buffer.flip();
+        }
+        int length = buffer.limit();
+        if (length < 20) {
+            throw new IOException("Truncated file " + file.getName());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, length - 8));
+        if (crc.getValue() != buffer.getLong(length - 8)) {
+            throw new IOException("Checksum mismatch in " + file.getName());
+        }
+        ByteBuffer in = buffer.slice(0, length - 8);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a top snapshot: " + file.getName());
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown top snapshot version " + version);
+            }
+            int bankCount = in.getInt();
+            List<Bank> banks = new ArrayList<>();
+            for (int i = 0; i < bankCount; i++) {
+                String name = readString(in);
+                int scale = in.getInt();
+                int count = in.getInt();
+                // every entry takes at least 26 bytes, a bad count must not allocate a huge list
+                if (count < 0 || count > in.remaining() / 26) {
+                    throw new IOException("Bad entry count " + count);
+                }
+                List<RankedIndex.Entry> entries = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    UUID uuid = new UUID(in.getLong(), in.getLong());
+                    long balance = in.getLong();
+                    entries.add(new RankedIndex.Entry(uuid, readString(in), balance));
+                }
+                banks.add(new Bank(name, scale, entries));
+            }
+            return banks;
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Damaged file " + file.getName(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        short length = in.getShort();
+        if (length == -1) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+package org.by1337.bvault.core.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats amounts for placeholders like {@code new DecimalFormat(pattern)} followed by grouping the integer part
+ * by three, but thread-safe and without garbage besides the returned string. Digits are written backwards into a
+ * per-thread buffer straight from the fixed-point value.
+ * <p>
+ * Of the pattern only the digits around the dot count: {@code 0} after it is a fraction digit that is always
+ * shown, {@code #} one that is shown unless it is a trailing zero, and every {@code 0} before it an integer digit
+ * that is always shown. At least one integer digit is shown. Rounding is half-even, like DecimalFormat.
+ */
+public final class MoneyFormat {
+    private static final int MAX_FRACTION = 18;
+    private static final long[] POW10 = new long[MAX_FRACTION + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final int minInteger;
+    private final int minFraction;
+    private final int maxFraction;
+    private final String groupSeparator;
+    private final String decimalSeparator;
+    private final ThreadLocal<char[]> buffers;
+
+    /**
+     * @param pattern          the DecimalFormat pattern, such as {@code #.##}.
+     * @param groupSeparator   put between every three integer digits, may be empty.
+     * @param decimalSeparator put before the fraction digits.
+     */
+    public MoneyFormat(String pattern, String groupSeparator, String decimalSeparator) {
+        int dot = pattern.indexOf('.');
+        String integerPart = dot == -1 ? pattern : pattern.substring(0, dot);
+        String fractionPart = dot == -1 ? "" : pattern.substring(dot + 1);
+        minInteger = Math.max(1, Math.min(19, count(integerPart, '0')));
+        minFraction = Math.min(MAX_FRACTION, count(fractionPart, '0'));
+        maxFraction = Math.max(minFraction, Math.min(MAX_FRACTION, count(fractionPart, '0') + count(fractionPart, '#')));
+        this.groupSeparator = groupSeparator;
+        this.decimalSeparator = decimalSeparator;
+        // sign, 19 digits with 6 separators, the decimal separator and the fraction digits
+        int length = 1 + 19 + 6 * groupSeparator.length() + decimalSeparator.length() + MAX_FRACTION;
+        buffers = ThreadLocal.withInitial(() -> new char[length]);
+    }
+
+    private static int count(String s, char c) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) count++;
+        }
+        return count;
+    }
+
+    public String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return String.valueOf(value);
+        }
+        double scaled = value * POW10[maxFraction];
+        if (Math.abs(scaled) < 9.0E18) {
+            if (scaled - Math.floor(scaled) == 0.5) {
+                // the product may have been rounded onto the tie, only the exact value tells the direction
+                return format(new BigDecimal(value).setScale(maxFraction, RoundingMode.HALF_EVEN).unscaledValue().longValue(), maxFraction);
+            }
+            return format((long) Math.rint(scaled), maxFraction);
+        }
+        return formatLarge(value);
+    }
+
+    /**
+     * @param unscaled the amount in minor units.
+     * @param scale    the number of fraction digits in {@code unscaled}.
+     */
+    public String format(long unscaled, int scale) {
+        boolean negative = unscaled < 0;
+        // kept negative, Long.MIN_VALUE has no positive counterpart
+        long v = negative ? unscaled : -unscaled;
+        int digits = scale;
+        if (digits > maxFraction) {
+            v = roundHalfEven(v, digits - maxFraction);
+            digits = maxFraction;
+        }
+        while (digits > minFraction && v % 10 == 0) {
+            v /= 10;
+            digits--;
+        }
+        if (v == 0) negative = false;
+
+        char[] buffer = buffers.get();
+        int pos = buffer.length;
+        int fraction = Math.max(digits, minFraction);
+        for (int i = digits; i < minFraction; i++) {
+            buffer[--pos] = '0';
+        }
+        for (int i = 0; i < digits; i++) {
+            buffer[--pos] = (char) ('0' - v % 10);
+            v /= 10;
+        }
+        if (fraction > 0) {
+            pos -= decimalSeparator.length();
+            decimalSeparator.getChars(0, decimalSeparator.length(), buffer, pos);
+        }
+        int count = 0;
+        do {
+            if (count > 0 && count % 3 == 0) {
+                pos -= groupSeparator.length();
+                groupSeparator.getChars(0, groupSeparator.length(), buffer, pos);
+            }
+            buffer[--pos] = (char) ('0' - v % 10);
+            v /= 10;
+            count++;
+        } while (v != 0 || count < minInteger);
+        if (negative) {
+            buffer[--pos] = '-';
+        }
+        return new String(buffer, pos, buffer.length - pos);
+    }
+
+    private static long roundHalfEven(long negative, int drop) {
+        if (drop > MAX_FRACTION) return 0;
+        long divisor = POW10[drop];
+        long q = negative / divisor;
+        long r = -(negative % divisor);
+        if (r * 2 > divisor || r * 2 == divisor && (q & 1) != 0) {
+            q--;
+        }
+        return q;
+    }
+
+    // beyond the range of long, rare enough to allocate
+    private String formatLarge(double value) {
+        BigDecimal rounded = new BigDecimal(value).setScale(maxFraction, RoundingMode.HALF_EVEN).stripTrailingZeros();
+        if (rounded.scale() < minFraction) {
+            rounded = rounded.setScale(minFraction);
+        }
+        String plain = rounded.abs().toPlainString();
+        int dot = plain.indexOf('.');
+        String integerPart = dot == -1 ? plain : plain.substring(0, dot);
+        StringBuilder sb = new StringBuilder();
+        if (rounded.signum() < 0) sb.append('-');
+        for (int i = 0; i < integerPart.length(); i++) {
+            if (i > 0 && (integerPart.length() - i) % 3 == 0) {
+                sb.append(groupSeparator);
+            }
+            sb.append(integerPart.charAt(i));
+        }
+        if (dot != -1) {
+            sb.append(decimalSeparator).append(plain, dot + 1, plain.length());
+        }
+        return sb.toString();
+    }
+}
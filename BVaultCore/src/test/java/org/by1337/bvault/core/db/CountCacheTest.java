@@ -0,0 +1,40 @@
+package org.by1337.bvault.core.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountCacheTest {
+
+    @Test
+    public void testReusesFreshCount() {
+        CountCache<String> cache = new CountCache<>(1, TimeUnit.HOURS);
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals(5L, cache.get("vault", () -> CompletableFuture.completedFuture(5L + loads.getAndIncrement())).join());
+        assertEquals(5L, cache.get("vault", () -> CompletableFuture.completedFuture(5L + loads.getAndIncrement())).join());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testServesStaleCountWhileRefreshing() {
+        CountCache<String> cache = new CountCache<>(0, TimeUnit.SECONDS);
+        CompletableFuture<Long> first = new CompletableFuture<>();
+        CompletableFuture<Long> pending = cache.get("vault", () -> first);
+        // the first count is shared by everyone asking meanwhile
+        assertSame(pending, cache.get("vault", () -> fail("only one count at a time")));
+        first.complete(3L);
+
+        CompletableFuture<Long> refresh = new CompletableFuture<>();
+        assertEquals(3L, cache.get("vault", () -> refresh).join());
+        assertEquals(3L, cache.get("vault", () -> fail("only one count at a time")).join());
+        refresh.complete(4L);
+        assertEquals(4L, cache.get("vault", () -> CompletableFuture.completedFuture(5L)).join());
+
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,543 @@
+package org.by1337.bvault.core.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.by1337.blib.configuration.YamlContext;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.core.top.BalTop;
+import org.by1337.bvault.core.top.LeaderboardPage;
+import org.by1337.bvault.core.top.PageCursor;
+import org.by1337.bvault.core.top.RankedIndex;
+import org.by1337.bvault.core.top.TopInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SqlDatabaseTest {
+    @Mock
+    private Plugin plugin;
+    @Mock
+    private Server server;
+    @Mock
+    private PluginManager pluginManager;
+    @Mock
+    private ExecutorService executorService;
+    @TempDir
+    File tempDir;
+    private BalTop balTop;
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    public void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(plugin.getServer()).thenReturn(server);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("SqlDatabaseTest"));
+        when(server.getPluginManager()).thenReturn(pluginManager);
+        when(server.getPlayer(any(UUID.class))).thenAnswer(invocation -> null);
+        doAnswer(invocation -> {
+            Runnable runnable = invocation.getArgument(0);
+            runnable.run();
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
+        balTop = new BalTop(plugin, executorService, 10);
+    }
+
+    @Test
+    public void testSqlite() {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        testRoundTrip(() -> new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    @Test
+    public void testMysql() {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        testRoundTrip(() -> new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    private void testRoundTrip(Supplier<SqlDatabase> factory) {
+        UUID player = UUID.randomUUID();
+        SqlDatabase db = factory.get();
+        User user = db.getUser(player).join();
+        user.deposit("vault", 100D);
+        user.flush();
+        user.deposit("vault", 50D);
+        user.flush();
+        user.deposit("donat", 5D);
+        user.flush();
+        db.close();
+
+        db = factory.get();
+        user = db.getUser(player).join();
+        assertEquals(150D, user.getBalance("vault"));
+        assertEquals(5D, user.getBalance("donat"));
+        assertTrue(db.getKnownBanks().contains("donat"));
+
+        List<TopInfo> top = db.getTopByBank("vault", 2).join();
+        assertEquals(player, top.get(0).uuid());
+        assertEquals(150D, top.get(0).balance());
+        assertEquals(TopInfo.EMPTY, top.get(1));
+
+        db.dropBalancesIn("vault").join();
+        assertEquals(0D, user.getBalance("vault"));
+        assertEquals(TopInfo.EMPTY, db.getTopByBank("vault", 1).join().get(0));
+        db.close();
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())) {
+            @Override
+            Map<UUID, User> loadUsers(Collection<UUID> uuids) {
+                started.countDown();
+                try {
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.loadUsers(uuids);
+            }
+        };
+        UUID player = UUID.randomUUID();
+        List<CompletableFuture<User>> futures = new ArrayList<>();
+        futures.add(db.getUser(player));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // every other miss arrives while the first load is held
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompletableFuture<User>>> calls = new ArrayList<>();
+            for (int i = 0; i < 15; i++) {
+                calls.add(callers.submit(() -> db.getUser(player)));
+            }
+            for (Future<CompletableFuture<User>> call : calls) {
+                futures.add(call.get());
+            }
+        } finally {
+            callers.shutdown();
+        }
+        for (CompletableFuture<User> future : futures) {
+            assertFalse(future.isDone());
+        }
+        release.countDown();
+        User user = futures.get(0).join();
+        for (CompletableFuture<User> future : futures) {
+            assertSame(user, future.join());
+        }
+        assertEquals(1L, db.getMetrics().get("users.loads"));
+        assertEquals(15L, db.getMetrics().get("users.coalescedLoads"));
+        db.close();
+    }
+
+    @Test
+    public void testBulkBalancesSqlite() {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        testBulkBalances(() -> new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    @Test
+    public void testBulkBalancesMysql() {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        testBulkBalances(() -> new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    private void testBulkBalances(Supplier<SqlDatabase> factory) {
+        SqlDatabase db = factory.get();
+        // more than one IN chunk
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < SqlDatabase.IN_CHUNK + 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            User user = db.getUser(uuid).join();
+            user.deposit("vault", i + 1);
+            user.deposit("donat", 1);
+            user.flush();
+            players.add(uuid);
+        }
+        db.close();
+
+        db = factory.get();
+        User cached = db.getUser(players.get(0)).join();
+        cached.deposit("vault", 1000);
+        UUID unknown = UUID.randomUUID();
+        List<UUID> asked = new ArrayList<>(players);
+        asked.add(unknown);
+        asked.add(players.get(1));
+
+        Map<UUID, Double> balances = db.getBalances("vault", asked, false).join();
+        assertEquals(players.size() + 1, balances.size());
+        assertEquals(1001D, balances.get(players.get(0)));
+        for (int i = 1; i < players.size(); i++) {
+            assertEquals(i + 1D, balances.get(players.get(i)));
+        }
+        assertEquals(0D, balances.get(unknown));
+        assertNull(db.getCachedUser(players.get(1)));
+        assertEquals(0D, db.getBalances("unknown", List.of(players.get(1)), false).join().get(players.get(1)));
+
+        balances = db.getBalances("vault", players.subList(0, 10), true).join();
+        assertEquals(10, balances.size());
+        assertEquals(2D, balances.get(players.get(1)));
+        assertNotNull(db.getCachedUser(players.get(1)));
+        db.close();
+    }
+
+    @Test
+    public void testTransfer() {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        Supplier<SqlDatabase> factory = () -> new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        SqlDatabase db = factory.get();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        User from = db.getUser(first).join();
+        from.deposit("vault", 100);
+        from.flush();
+        assertEquals(70D, from.transfer(db.getUser(second).join(), BankHandle.of("vault"), 30));
+        assertEquals(1L, db.getMetrics().get("users.transfers"));
+        assertEquals(100, db.getStats("vault").total(), 1e-9);
+        db.close();
+
+        db = factory.get();
+        assertEquals(70D, db.getUser(first).join().getBalance("vault"));
+        assertEquals(30D, db.getUser(second).join().getBalance("vault"));
+        db.close();
+    }
+
+    @Test
+    public void testPreloadsOnlinePlayersAndLogins() {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        for (UUID uuid : List.of(first, second)) {
+            User user = db.getUser(uuid).join();
+            user.deposit("vault", 10);
+            user.flush();
+        }
+        db.close();
+
+        Player player = mock(Player.class);
+        when(player.getUniqueId()).thenReturn(first);
+        doReturn(List.of(player)).when(server).getOnlinePlayers();
+        db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        assertEquals(10D, db.getUser(first).join().getBalance("vault"));
+
+        AsyncPlayerPreLoginEvent event = mock(AsyncPlayerPreLoginEvent.class);
+        when(event.getLoginResult()).thenReturn(AsyncPlayerPreLoginEvent.Result.ALLOWED);
+        when(event.getUniqueId()).thenReturn(second);
+        when(event.getName()).thenReturn("second");
+        db.onPreLogin(event);
+        // one bulk load on enable, one by the pre login; the getUser after it is served from the cache
+        Map<String, Number> metrics = db.getMetrics();
+        assertEquals(2L, metrics.get("users.loads"));
+        User user = db.getUser(second).join();
+        assertEquals(10D, user.getBalance("vault"));
+        assertEquals("second", user.getNickName());
+        assertEquals(2L, db.getMetrics().get("users.loads"));
+        db.close();
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE player_balances");
+        }
+        UUID player = UUID.randomUUID();
+        assertThrows(CompletionException.class, () -> db.getUser(player).join());
+        assertNull(db.getCachedUser(player));
+
+        AsyncPlayerPreLoginEvent event = mock(AsyncPlayerPreLoginEvent.class);
+        when(event.getLoginResult()).thenReturn(AsyncPlayerPreLoginEvent.Result.ALLOWED);
+        when(event.getUniqueId()).thenReturn(player);
+        when(event.getName()).thenReturn("player");
+        db.onPreLogin(event);
+        verify(event).disallow(eq(AsyncPlayerPreLoginEvent.Result.KICK_OTHER), any());
+        assertNull(db.getCachedUser(player));
+        db.close();
+    }
+
+    @Test
+    public void testRank() throws Exception {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        List<UUID> players = new ArrayList<>();
+        for (int i = 1; i <= 15; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            User user = db.getUser(uuid).join();
+            user.deposit("vault", i * 10);
+            user.flush();
+        }
+        db.close();
+
+        balTop.clear();
+        db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (balTop.getTop("vault", 1).get(0) == TopInfo.EMPTY && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // inside the top list of 10, answered from memory
+        assertEquals(1L, db.getRank("vault", players.get(14)).join());
+        assertEquals(6L, db.getRank("vault", players.get(9)).join());
+        assertEquals(0L, db.getMetrics().get("ranks.queries"));
+        // below it, counted by the database once
+        assertEquals(13L, db.getRank("vault", players.get(2)).join());
+        assertEquals(13L, db.getRank("vault", players.get(2)).join());
+        assertEquals(1L, db.getMetrics().get("ranks.queries"));
+        // read, but not loaded into the cache
+        assertNull(db.getCachedUser(players.get(2)));
+        assertEquals(15L, db.countAccounts("vault").join());
+        db.close();
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        List<User> users = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            User user = db.getUser(UUID.randomUUID()).join();
+            user.deposit("vault", i);
+            user.flush();
+            users.add(user);
+        }
+        users.get(99).withdraw("vault", 50);
+        users.get(99).flush();
+        assertEquals(100, db.getStats("vault").accounts());
+        assertEquals(5000, db.getStats("vault").total(), 1e-9);
+        assertEquals(50, db.getStats("vault").median(), 1);
+
+        assertTrue(db.rebuildStats().join());
+        assertEquals(100, db.getStats("vault").accounts());
+        assertEquals(5000, db.getStats("vault").total(), 1e-9);
+        db.close();
+
+        // counted from the database on startup
+        db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (db.getMetrics().get("stats.rebuilds").longValue() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, db.getStats("vault").accounts());
+        assertEquals(5000, db.getStats("vault").total(), 1e-9);
+        db.dropBalancesIn("vault").join();
+        assertEquals(0, db.getStats("vault").accounts());
+        db.close();
+    }
+
+    @Test
+    public void testTopPagesSqlite() {
+        String url = "jdbc:sqlite:" + new File(tempDir, "data.db").getPath();
+        testTopPages(() -> new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    @Test
+    public void testTopPagesMysql() {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        testTopPages(() -> new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration())));
+    }
+
+    private void testTopPages(Supplier<SqlDatabase> factory) {
+        SqlDatabase db = factory.get();
+        RankedIndex expected = new RankedIndex();
+        for (int i = 0; i < 25; i++) {
+            UUID uuid = UUID.randomUUID();
+            User user = db.getUser(uuid).join();
+            // pairs of equal balances, so that ties cross page boundaries
+            user.deposit("vault", 1 + i / 2);
+            user.flush();
+            expected.upsert(uuid, null, user.getMinorBalance("vault"));
+        }
+        db.close();
+        db = factory.get();
+        // the first pages come from the top list once it has been read
+        long deadline = System.currentTimeMillis() + 5000;
+        while (balTop.isDirty("vault") && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        List<TopInfo> all = new ArrayList<>();
+        PageCursor cursor = null;
+        do {
+            LeaderboardPage page = db.getTopPage("vault", cursor, 4).join();
+            assertTrue(page.entries().size() <= 4);
+            all.addAll(page.entries());
+            cursor = page.next() == null ? null : PageCursor.decode(page.next().encode());
+        } while (cursor != null);
+        assertEquals(25, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(expected.get(i).uuid(), all.get(i).uuid());
+            assertEquals(i, all.get(i).pos());
+        }
+        db.close();
+    }
+
+    @Test
+    public void testMigratesDoubleBalances() throws Exception {
+        String url = "jdbc:sqlite:" + new File(tempDir, "old.db").getPath();
+        UUID player = UUID.randomUUID();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE player_balances (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance DOUBLE, PRIMARY KEY (uuid, bank))");
+            statement.execute("CREATE TABLE banks (bank_name VARCHAR(16) PRIMARY KEY)");
+            statement.execute("INSERT INTO banks (bank_name) VALUES ('vault')");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'vault', 10.1)");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'donat', 7)");
+        }
+        BankScales scales = new BankScales(2, Map.of("donat", 0));
+        SqlDatabase db = new SqliteDatabase(hikariConfig(url), plugin, balTop, scales, new YamlContext(new YamlConfiguration()));
+        User user = db.getUser(player).join();
+        assertEquals(1010, user.getMinorBalance("vault"));
+        assertEquals(7, user.getMinorBalance("donat"));
+        assertEquals(10.1D, user.getBalance("vault"));
+        assertTrue(db.getKnownBanks().contains("donat"));
+        db.close();
+
+        // the saved scale wins over the config once the bank exists
+        db = new SqliteDatabase(hikariConfig(url), plugin, balTop, new BankScales(4, Map.of()), new YamlContext(new YamlConfiguration()));
+        assertEquals(7D, db.getUser(player).join().getBalance("donat"));
+        db.close();
+    }
+
+    @Test
+    public void testResumesInterruptedFixedPointMigration() throws Exception {
+        // DDL commits on its own in MySQL, a crash after the old table was dropped leaves only the copy
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        UUID player = UUID.randomUUID();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE banks (bank_name VARCHAR(16) PRIMARY KEY, scale INTEGER)");
+            statement.execute("INSERT INTO banks VALUES ('vault', 2)");
+            statement.execute("CREATE TABLE player_balances_v3 (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance BIGINT, PRIMARY KEY (uuid, bank))");
+            statement.execute("INSERT INTO player_balances_v3 VALUES ('" + player + "', 'nick', 'vault', 1010)");
+        }
+        SqlDatabase db = new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        assertEquals(10.1D, db.getUser(player).join().getBalance("vault"));
+        db.close();
+
+        // a crash during the copy leaves the old table next to a partial copy
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE banks (bank_name VARCHAR(16) PRIMARY KEY, scale INTEGER)");
+            statement.execute("INSERT INTO banks VALUES ('vault', 2)");
+            statement.execute("CREATE TABLE player_balances (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance DOUBLE, PRIMARY KEY (uuid, bank))");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'vault', 10.1)");
+            statement.execute("CREATE TABLE player_balances_v3 (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance BIGINT, PRIMARY KEY (uuid, bank))");
+        }
+        db = new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        assertEquals(10.1D, db.getUser(player).join().getBalance("vault"));
+        db.close();
+    }
+
+    @Test
+    public void testMigratesToCompactSchema() throws Exception {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE player_balances (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance BIGINT, PRIMARY KEY (uuid, bank))");
+            statement.execute("CREATE INDEX idx_uuid ON player_balances(uuid)");
+            statement.execute("CREATE TABLE banks (bank_name VARCHAR(16) PRIMARY KEY, scale INTEGER)");
+            statement.execute("INSERT INTO banks VALUES ('vault', 2)");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'vault', 1050)");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'donat', 3)");
+            statement.execute("INSERT INTO player_balances VALUES ('" + other + "', 'other', 'vault', 2000)");
+        }
+        SqlDatabase db = new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        User user = db.getUser(player).join();
+        assertEquals(10.5D, user.getBalance("vault"));
+        assertEquals(0.03D, user.getBalance("donat"));
+        assertEquals("nick", user.getNickName());
+
+        List<TopInfo> top = db.getTopByBank("vault", 2).join();
+        assertEquals(other, top.get(0).uuid());
+        assertEquals("other", top.get(0).nickName());
+        assertEquals(player, top.get(1).uuid());
+        db.close();
+    }
+
+    @Test
+    public void testResumesInterruptedCompactMigration() throws Exception {
+        // crashed after both old tables were dropped, the complete copies are left
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        UUID player = UUID.randomUUID();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE banks_v4 (bank_id INTEGER AUTO_INCREMENT PRIMARY KEY, bank_name VARCHAR(16) NOT NULL UNIQUE, scale INTEGER)");
+            statement.execute("INSERT INTO banks_v4 (bank_name, scale) VALUES ('vault', 3)");
+            statement.execute("CREATE TABLE players (uuid BINARY(16) NOT NULL PRIMARY KEY, nickname VARCHAR(36))");
+            statement.execute("CREATE TABLE player_balances_v4 (uuid BINARY(16) NOT NULL, bank_id INTEGER NOT NULL, balance BIGINT NOT NULL, PRIMARY KEY (uuid, bank_id))");
+            try (var insert = connection.prepareStatement("INSERT INTO player_balances_v4 VALUES (?, 1, 10500)")) {
+                insert.setBytes(1, UuidBytes.toBytes(player));
+                insert.execute();
+            }
+        }
+        SqlDatabase db = new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        assertEquals(10.5D, db.getUser(player).join().getBalance("vault"));
+        db.close();
+
+        // crashed during the copy of the balances, the old table is converted again
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE banks (bank_name VARCHAR(16) PRIMARY KEY, scale INTEGER)");
+            statement.execute("INSERT INTO banks VALUES ('vault', 2)");
+            statement.execute("CREATE TABLE banks_v4 (bank_id INTEGER AUTO_INCREMENT PRIMARY KEY, bank_name VARCHAR(16) NOT NULL UNIQUE, scale INTEGER)");
+            statement.execute("CREATE TABLE player_balances (uuid CHAR(36), nickname VARCHAR(36), bank VARCHAR(16), balance BIGINT, PRIMARY KEY (uuid, bank))");
+            statement.execute("INSERT INTO player_balances VALUES ('" + player + "', 'nick', 'vault', 1050)");
+            statement.execute("CREATE TABLE player_balances_v4 (uuid BINARY(16) NOT NULL, bank_id INTEGER NOT NULL, balance BIGINT NOT NULL, PRIMARY KEY (uuid, bank_id))");
+        }
+        db = new MysqlDatabase(hikariConfig(url), plugin, balTop, new BankScales(), new YamlContext(new YamlConfiguration()));
+        assertEquals(10.5D, db.getUser(player).join().getBalance("vault"));
+        assertEquals("nick", db.getUser(player).join().getNickName());
+        db.close();
+    }
+
+    private HikariConfig hikariConfig(String url) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(4);
+        return config;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeable.close();
+    }
+}
@@ -0,0 +1,65 @@
+package org.by1337.bvault.core.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheTest {
+
+    private User user() {
+        return new User(UUID.randomUUID(), null, new BankScales(), "nick");
+    }
+
+    @Test
+    public void testEvictsLeastFrequentlyUsed() {
+        UserCache cache = new UserCache(2, 1, TimeUnit.HOURS, Runnable::run);
+        User hot = user();
+        User warm = user();
+        User cold = user();
+        cache.put(hot);
+        cache.put(warm);
+        cache.put(cold);
+        for (int i = 0; i < 5; i++) {
+            cache.get(hot.getUuid());
+        }
+        cache.get(warm.getUuid());
+
+        cache.cleanUp();
+        assertSame(hot, cache.get(hot.getUuid()));
+        assertSame(warm, cache.get(warm.getUuid()));
+        assertNull(cache.get(cold.getUuid()));
+        assertEquals(1L, cache.getStats().get("cache.evictions"));
+    }
+
+    @Test
+    public void testOnlineUsersArePinned() {
+        UserCache cache = new UserCache(0, 0, TimeUnit.SECONDS, Runnable::run);
+        User online = user();
+        User offline = user();
+        cache.setOnline(online.getUuid(), true);
+        cache.put(online);
+        cache.put(offline);
+
+        cache.cleanUp();
+        assertSame(online, cache.get(online.getUuid()));
+        assertNull(cache.get(offline.getUuid()));
+
+        cache.setOnline(online.getUuid(), false);
+        cache.cleanUp();
+        assertNull(cache.get(online.getUuid()));
+    }
+
+    @Test
+    public void testStats() {
+        UserCache cache = new UserCache(10, 1, TimeUnit.HOURS, Runnable::run);
+        User user = user();
+        assertNull(cache.get(user.getUuid()));
+        cache.put(user);
+        cache.get(user.getUuid());
+        assertEquals(1L, cache.getStats().get("cache.hits"));
+        assertEquals(1L, cache.getStats().get("cache.misses"));
+    }
+}
@@ -0,0 +1,173 @@
+package org.by1337.bvault.core.db;
+
+import org.by1337.bvault.api.BankHandle;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class UserTest {
+
+    @Test
+    public void testConcurrentDeposits() throws Exception {
+        User user = new User(UUID.randomUUID(), mock(Database.class), new BankScales(), "nick");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        user.deposit("vault", 0.01);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(80_000, user.getMinorBalance("vault"));
+        assertEquals(800D, user.getBalance("vault"));
+        assertEquals(80_000L, user.findMinorBalance(BankHandle.of("vault")));
+        assertNull(user.findMinorBalance(BankHandle.of("other")));
+    }
+
+    @Test
+    public void testTransfer() {
+        Database database = mock(Database.class);
+        User from = new User(Map.of("vault", 10_000L), UUID.randomUUID(), database, new BankScales(), "from");
+        User to = new User(UUID.randomUUID(), database, new BankScales(), "to");
+        assertEquals(60D, from.transfer(to, BankHandle.of("vault"), 40));
+        assertEquals(40D, to.getBalance("vault"));
+        verify(database).flushTransfer(from, to, "vault");
+
+        // both sides were handed to the database already
+        from.flush();
+        to.flush();
+        verify(database, never()).flushUser(any(), any());
+        assertThrows(IllegalArgumentException.class, () -> from.transfer(from, BankHandle.of("vault"), 1));
+    }
+
+    @Test
+    public void testTransferRequiringFunds() {
+        Database database = mock(Database.class);
+        BankHandle vault = BankHandle.of("vault");
+        User from = new User(Map.of("vault", 5_000L), UUID.randomUUID(), database, new BankScales(), "from");
+        User to = new User(UUID.randomUUID(), database, new BankScales(), "to");
+        assertThrows(IllegalStateException.class, () -> from.transfer(to, vault, 60, true));
+        assertEquals(50D, from.getBalance(vault));
+        assertNull(to.findMinorBalance(vault));
+        // nobody gets an empty balance from a rejected transfer
+        assertThrows(IllegalStateException.class, () -> to.transfer(from, vault, 1, true));
+        assertNull(to.findMinorBalance(vault));
+        verify(database, never()).flushTransfer(any(), any(), any());
+
+        assertEquals(0D, from.transfer(to, vault, 50, true));
+        assertEquals(50D, to.getBalance(vault));
+        verify(database).flushTransfer(from, to, "vault");
+    }
+
+    @Test
+    public void testRejectedTransferIsUndone() {
+        Database database = mock(Database.class);
+        BankHandle vault = BankHandle.of("vault");
+        User from = new User(Map.of("vault", 5_000L), UUID.randomUUID(), database, new BankScales(), "from");
+        User to = new User(Map.of("vault", 0L), UUID.randomUUID(), database, new BankScales(), "to");
+        doThrow(new RejectedExecutionException()).when(database).flushTransfer(from, to, "vault");
+        assertThrows(RejectedExecutionException.class, () -> from.transfer(to, vault, 20));
+        assertEquals(50D, from.getBalance(vault));
+        assertEquals(0D, to.getBalance(vault));
+
+        // left unflushed, the next flush hands the restored balances to the database
+        from.flush();
+        to.flush();
+        verify(database).flushUser(from, "vault");
+        verify(database).flushUser(to, "vault");
+    }
+
+    @Test
+    public void testOppositeTransfersDoNotDeadlock() throws Exception {
+        Database database = mock(Database.class);
+        User first = new User(UUID.randomUUID(), database, new BankScales(), "first");
+        User second = new User(UUID.randomUUID(), database, new BankScales(), "second");
+        BankHandle vault = BankHandle.of("vault");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                User from = i % 2 == 0 ? first : second;
+                User to = from == first ? second : first;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        from.transfer(to, vault, 1);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, first.getMinorBalance(vault) + second.getMinorBalance(vault));
+        assertEquals(0, first.getMinorBalance(vault));
+    }
+
+    @Test
+    public void testFlushWritesOnlyDirtyCells() {
+        Database database = mock(Database.class);
+        User user = new User(Map.of("vault", 100L), UUID.randomUUID(), database, new BankScales(), "nick");
+        user.flush();
+        verify(database, never()).flushUser(any(), any());
+
+        user.deposit("vault", 1);
+        user.deposit("donat", 1);
+        user.flush();
+        verify(database).flushUser(user, "vault");
+        verify(database).flushUser(user, "donat");
+
+        user.flush();
+        verify(database, times(1)).flushUser(user, "vault");
+        verify(database, times(1)).flushUser(eq(user), eq("donat"));
+    }
+
+    @Test
+    public void testListenerToldAboutChanges() {
+        BalanceListener listener = mock(BalanceListener.class);
+        User user = new User(Map.of("vault", 100L), UUID.randomUUID(), mock(Database.class), new BankScales(), "nick", listener);
+        user.deposit("vault", 1);
+        user.withdraw("donat", 1);
+        verify(listener).balanceChanged(user, "vault");
+        verify(listener).balanceChanged(user, "donat");
+
+        user.dropBalances(null);
+        verify(listener, times(2)).balanceChanged(user, "vault");
+        verify(listener, times(2)).balanceChanged(user, "donat");
+    }
+
+    @Test
+    public void testHandlesAndNamesShareCells() {
+        User user = new User(Map.of("vault", 100L), UUID.randomUUID(), mock(Database.class), new BankScales(), "nick");
+        BankHandle vault = BankHandle.of("vault");
+        assertEquals(1D, user.getBalance(vault));
+        assertEquals(3D, user.deposit(vault, 2));
+        assertEquals(300L, user.getMinorBalance("vault"));
+        user.deposit(BankHandle.of("donat"), 1);
+        assertEquals(Set.of("vault", "donat"), user.getExistedBanks());
+        assertThrows(IllegalArgumentException.class, () -> user.deposit("b@nk", 1));
+    }
+}
@@ -0,0 +1,137 @@
+package org.by1337.bvault.core.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindQueueTest {
+    private final List<List<WriteBehindQueue.Entry>> batches = new ArrayList<>();
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private boolean fail;
+    private WriteBehindQueue queue;
+
+    @BeforeEach
+    public void setUp() {
+        batches.clear();
+        scheduled.clear();
+        fail = false;
+        queue = new WriteBehindQueue(batch -> {
+            if (fail) throw new SQLException("test");
+            batches.add(batch);
+        }, scheduled::add, 3, Logger.getLogger("test"));
+    }
+
+    @Test
+    public void testKeepsLatestValue() {
+        UUID player = UUID.randomUUID();
+        queue.offer(player, "vault", "nick", 10);
+        queue.offer(player, "vault", "nick", 20);
+        queue.offer(player, "vault", "nick", 30);
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(2, queue.getMergedWrites());
+
+        queue.flush();
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertEquals(30, batches.get(0).get(0).balance());
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getWrittenRows());
+    }
+
+    @Test
+    public void testSeparatesBanks() {
+        UUID player = UUID.randomUUID();
+        queue.offer(player, "vault", "nick", 10);
+        queue.offer(player, "donat", "nick", 20);
+        assertEquals(2, queue.getQueueDepth());
+        assertEquals(0, queue.getMergedWrites());
+    }
+
+    @Test
+    public void testBatchSizeRequestsFlush() {
+        queue.offer(UUID.randomUUID(), "vault", "nick", 1);
+        queue.offer(UUID.randomUUID(), "vault", "nick", 2);
+        assertTrue(scheduled.isEmpty());
+        queue.offer(UUID.randomUUID(), "vault", "nick", 3);
+        queue.offer(UUID.randomUUID(), "vault", "nick", 4);
+        assertEquals(1, scheduled.size());
+
+        scheduled.get(0).run();
+        assertEquals(1, batches.size());
+        assertEquals(4, batches.get(0).size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsNewerValue() {
+        UUID player = UUID.randomUUID();
+        queue.offer(player, "vault", "nick", 10);
+        fail = true;
+        queue.flush();
+        assertEquals(1, queue.getQueueDepth());
+
+        queue.offer(player, "vault", "nick", 50);
+        fail = false;
+        queue.flush();
+        assertEquals(50, batches.get(0).get(0).balance());
+    }
+
+    @Test
+    public void testPendingCoversUnwrittenBalances() {
+        UUID player = UUID.randomUUID();
+        queue.offer(player, "vault", "nick", 10);
+        queue.offer(UUID.randomUUID(), "vault", "nick", 20);
+        assertEquals(Map.of("vault", 10L), queue.getPending(player));
+        queue.offer(player, "donat", "nick", 30);
+        assertEquals(Map.of(player, 10L), queue.getPending("vault", Set.of(player)));
+
+        queue.flush();
+        assertTrue(queue.getPending(player).isEmpty());
+    }
+
+    @Test
+    public void testGroupNeverSplitAcrossBatches() throws Exception {
+        List<List<WriteBehindQueue.Entry>> written = new ArrayList<>();
+        WriteBehindQueue groups = new WriteBehindQueue(written::add, command -> {
+        }, Integer.MAX_VALUE, Logger.getLogger("test"));
+        UUID from = UUID.randomUUID();
+        UUID to = UUID.randomUUID();
+        Thread offering = new Thread(() -> {
+            for (int i = 1; i <= 20_000; i++) {
+                groups.offerAll(List.of(
+                        new WriteBehindQueue.Entry(from, "vault", "from", -i),
+                        new WriteBehindQueue.Entry(to, "vault", "to", i)
+                ));
+            }
+        });
+        offering.start();
+        while (offering.isAlive()) {
+            groups.flush();
+        }
+        offering.join();
+        groups.flush();
+        assertFalse(written.isEmpty());
+        for (List<WriteBehindQueue.Entry> batch : written) {
+            assertEquals(2, batch.size());
+            assertEquals(0, batch.get(0).balance() + batch.get(1).balance());
+        }
+    }
+
+    @Test
+    public void testDiscard() {
+        queue.offer(UUID.randomUUID(), "vault", "nick", 1);
+        queue.offer(UUID.randomUUID(), "donat", "nick", 2);
+        queue.discard("vault");
+        assertEquals(1, queue.getQueueDepth());
+        queue.discard(null);
+        assertEquals(0, queue.getQueueDepth());
+    }
+}
@@ -0,0 +1,63 @@
+package org.by1337.bvault.core.hook;
+
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+import org.by1337.bvault.api.BEconomy;
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.core.db.Database;
+import org.by1337.bvault.core.db.User;
+import org.by1337.bvault.core.impl.BEconomyImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DefaultVaultEconomyAdapterTest {
+    private final UUID uuid = UUID.randomUUID();
+    private Database database;
+    private OfflinePlayer player;
+
+    @BeforeEach
+    public void setUp() {
+        database = mock(Database.class);
+        player = mock(OfflinePlayer.class);
+        when(player.getUniqueId()).thenReturn(uuid);
+    }
+
+    @Test
+    public void testCachedUserIsChangedInPlace() {
+        User user = mock(User.class);
+        BankHandle vault = BankHandle.of(BEconomy.DEFAULT_BANK);
+        when(user.deposit(vault, 5)).thenReturn(15D);
+        when(user.withdraw(vault, 50)).thenThrow(new ArithmeticException("long overflow"));
+        when(database.getCachedUser(uuid)).thenReturn(user);
+        DefaultVaultEconomyAdapter adapter = new DefaultVaultEconomyAdapter(new BEconomyImpl(database, null), database, 100, DefaultVaultEconomyAdapter.ColdAccountFallback.FAIL);
+
+        EconomyResponse response = adapter.depositPlayer(player, 5);
+        assertTrue(response.transactionSuccess());
+        assertEquals(15D, response.balance);
+        // changed through the same fast path as the BVault API
+        verify(user).deposit(vault, 5);
+        verify(user).flush();
+        verify(database, never()).getUser(uuid);
+        assertEquals(1L, adapter.getMetrics().get("vault.fastPath"));
+
+        EconomyResponse failed = adapter.withdrawPlayer(player, 50);
+        assertFalse(failed.transactionSuccess());
+        assertEquals("long overflow", failed.errorMessage);
+    }
+
+    @Test
+    public void testColdAccountFailsAfterTimeout() {
+        when(database.getUser(uuid)).thenReturn(new CompletableFuture<>());
+        DefaultVaultEconomyAdapter adapter = new DefaultVaultEconomyAdapter(new BEconomyImpl(database, null), database, 10, DefaultVaultEconomyAdapter.ColdAccountFallback.FAIL);
+
+        assertFalse(adapter.withdrawPlayer(player, 5).transactionSuccess());
+        assertEquals(0D, adapter.getBalance(player));
+        assertEquals(2L, adapter.getMetrics().get("vault.timeouts"));
+    }
+}
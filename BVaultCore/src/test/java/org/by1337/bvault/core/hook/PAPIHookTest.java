@@ -0,0 +1,136 @@
+package org.by1337.bvault.core.hook;
+
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.by1337.blib.configuration.YamlContext;
+import org.bukkit.entity.Player;
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.db.BalanceListener;
+import org.by1337.bvault.core.db.Database;
+import org.by1337.bvault.core.db.User;
+import org.by1337.bvault.core.top.BalTop;
+import org.by1337.bvault.core.top.TopInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PAPIHookTest {
+    private BalTop balTop;
+    private Database database;
+    private PAPIHook hook;
+
+    @BeforeEach
+    public void setUp() {
+        Plugin plugin = mock(Plugin.class);
+        Server server = mock(Server.class);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("PAPIHookTest"));
+        when(plugin.getServer()).thenReturn(server);
+        doReturn(List.of()).when(server).getOnlinePlayers();
+        database = mock(Database.class);
+        balTop = new BalTop(plugin, 10);
+        YamlContext context = new YamlContext(new YamlConfiguration());
+        context.set("balTop.format.thousand-separator", " ");
+        context.set("balTop.format.integer-separator", ".");
+        context.set("cashTime", 0);
+        hook = new PAPIHook(context, balTop, database, plugin);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        balTop.close();
+    }
+
+    @Test
+    public void testTopPlaceholders() {
+        balTop.setTop(List.of(
+                new TopInfo(UUID.randomUUID(), "rich", 1234567.891, 0),
+                new TopInfo(UUID.randomUUID(), "poor", 5, 1)
+        ), "vault");
+        assertEquals("rich", hook.onPlaceholderRequest(null, "top_nick_vault_0"));
+        assertEquals("1 234 567.89", hook.onPlaceholderRequest(null, "top_balance_vault_0"));
+        assertEquals("5", hook.onPlaceholderRequest(null, "top_balance_vault_1"));
+        assertEquals("----", hook.onPlaceholderRequest(null, "top_nick_vault_5"));
+        // answered again from the parsed params
+        assertEquals("rich", hook.onPlaceholderRequest(null, "top_nick_vault_0"));
+    }
+
+    @Test
+    public void testRenderedAgainOnlyAfterTheTopChanged() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        balTop.setTop(List.of(new TopInfo(uuid, "first", 10, 0)), "vault");
+        String balance = hook.onPlaceholderRequest(null, "top_balance_vault_0");
+        assertEquals("10", balance);
+        Thread.sleep(2);
+        assertSame(balance, hook.onPlaceholderRequest(null, "top_balance_vault_0"));
+
+        balTop.setTop(List.of(new TopInfo(uuid, "first", 20, 0)), "vault");
+        Thread.sleep(2);
+        assertEquals("20", hook.onPlaceholderRequest(null, "top_balance_vault_0"));
+    }
+
+    @Test
+    public void testStatsBuiltOncePerCashTime() {
+        Plugin plugin = mock(Plugin.class);
+        Server server = mock(Server.class);
+        when(plugin.getServer()).thenReturn(server);
+        doReturn(List.of()).when(server).getOnlinePlayers();
+        YamlContext context = new YamlContext(new YamlConfiguration());
+        context.set("cashTime", 60);
+        PAPIHook cached = new PAPIHook(context, balTop, database, plugin);
+        when(database.getStats("vault")).thenReturn(new BankStats(2, 30, 15, 20, 20, 0.5));
+
+        assertEquals("30", cached.onPlaceholderRequest(null, "stats_vault_total"));
+        assertEquals("15", cached.onPlaceholderRequest(null, "stats_vault_median"));
+        assertEquals("50", cached.onPlaceholderRequest(null, "stats_vault_top1share"));
+        verify(database, times(1)).getStats("vault");
+    }
+
+    @Test
+    public void testBalanceRenderedOnChange() {
+        ArgumentCaptor<BalanceListener> listener = ArgumentCaptor.forClass(BalanceListener.class);
+        verify(database).addBalanceListener(listener.capture());
+        UUID uuid = UUID.randomUUID();
+        Player player = mock(Player.class);
+        when(player.getUniqueId()).thenReturn(uuid);
+        when(player.isOnline()).thenReturn(true);
+        User user = mock(User.class);
+        when(user.getUuid()).thenReturn(uuid);
+        when(user.getBalance("vault")).thenReturn(1234.5);
+        when(database.getCachedUser(uuid)).thenReturn(user);
+
+        assertEquals("1 234.5", hook.onPlaceholderRequest(player, "balance"));
+        assertEquals("1234", hook.onPlaceholderRequest(player, "raw_balance_vault"));
+        assertEquals("1 234.5", hook.onPlaceholderRequest(player, "balance_vault"));
+        verify(user, times(1)).getBalance("vault");
+
+        when(user.getBalance("vault")).thenReturn(10.0);
+        listener.getValue().balanceChanged(user, "vault");
+        assertEquals("10", hook.onPlaceholderRequest(player, "balance_vault"));
+        verify(user, times(2)).getBalance("vault");
+
+        assertEquals("Invalid name. Must be [a-zA-Z0-9._-]: 'b@nk'", hook.onPlaceholderRequest(player, "balance_b@nk"));
+    }
+
+    @Test
+    public void testBadParams() {
+        assertEquals("use %bvault_top_nick_<bank>_<position>%", hook.onPlaceholderRequest(null, "top_nick_vault"));
+        assertEquals("use %bvault_top_balance_<bank>_<position>%! gotten top_balance_vault_x",
+                hook.onPlaceholderRequest(null, "top_balance_vault_x"));
+        assertEquals("only for players", hook.onPlaceholderRequest(null, "balance_vault"));
+        assertNull(hook.onPlaceholderRequest(null, "unknown"));
+        // checked once when compiled, the economy is never asked about a bad bank
+        String invalid = "Invalid name. Must be [a-zA-Z0-9._-]: 'b@nk'";
+        assertEquals(invalid, hook.onPlaceholderRequest(null, "rank_b@nk"));
+        assertEquals(invalid, hook.onPlaceholderRequest(null, "accounts_b@nk"));
+        assertEquals(invalid, hook.onPlaceholderRequest(null, "stats_b@nk_total"));
+    }
+}
@@ -0,0 +1,101 @@
+package org.by1337.bvault.core.impl;
+
+import org.by1337.bvault.api.BankHandle;
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.db.Database;
+import org.by1337.bvault.core.db.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.OptionalDouble;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BEconomyImplTest {
+    private final UUID uuid = UUID.randomUUID();
+    private Database database;
+    private BEconomyImpl economy;
+
+    @BeforeEach
+    public void setUp() {
+        database = mock(Database.class);
+        economy = new BEconomyImpl(database, null);
+    }
+
+    @Test
+    public void testCachedUserAnsweredOnTheCallingThread() {
+        User user = mock(User.class);
+        BankHandle vault = economy.bank("vault");
+        when(user.deposit(vault, 5)).thenReturn(15D);
+        when(user.getBalance(vault)).thenReturn(15D);
+        when(database.getCachedUser(uuid)).thenReturn(user);
+
+        double[] result = new double[1];
+        economy.deposit("vault", uuid, 5, balance -> result[0] = balance, Throwable::printStackTrace);
+        assertEquals(15D, result[0]);
+        verify(user).flush();
+        assertEquals(OptionalDouble.of(15D), economy.getBalanceIfCached("vault", uuid));
+        assertEquals(15D, economy.getBalance("vault", uuid).join());
+        assertEquals(15D, economy.getBalance(vault, uuid).join());
+        assertSame(vault, economy.bank("vault"));
+        verify(database, never()).getUser(uuid);
+    }
+
+    @Test
+    public void testTransferBetweenCachedUsers() {
+        UUID other = UUID.randomUUID();
+        User from = mock(User.class);
+        User to = mock(User.class);
+        BankHandle vault = economy.bank("vault");
+        when(from.transfer(to, vault, 5, false)).thenReturn(10D);
+        when(from.transfer(to, vault, 50, true)).thenThrow(new IllegalStateException("Insufficient funds!"));
+        when(database.getCachedUser(uuid)).thenReturn(from);
+        when(database.getCachedUser(other)).thenReturn(to);
+
+        assertEquals(10D, economy.transfer("vault", uuid, other, 5).join());
+        CompletionException rejected = assertThrows(CompletionException.class, () -> economy.transfer(vault, uuid, other, 50, true).join());
+        assertTrue(rejected.getCause() instanceof IllegalStateException);
+        verify(database, never()).getUser(any());
+        assertThrows(IllegalArgumentException.class, () -> economy.transfer(vault, uuid, uuid, 5));
+    }
+
+    @Test
+    public void testHandleOverloadsReachTheDatabase() {
+        BankHandle vault = economy.bank("vault");
+        when(database.getRank("vault", uuid)).thenReturn(CompletableFuture.completedFuture(3L));
+        when(database.countAccounts("vault")).thenReturn(CompletableFuture.completedFuture(7L));
+        when(database.getStats("vault")).thenReturn(new BankStats(7, 70, 10, 10, 10, 0.1));
+
+        assertEquals(3L, economy.getRank(vault, uuid).join());
+        assertEquals(7L, economy.getAccountCount(vault).join());
+        assertEquals(7L, economy.getStats(vault).accounts());
+        assertEquals(7L, economy.getAccountCount("vault").join());
+        assertThrows(IllegalArgumentException.class, () -> economy.getAccountCount("b@nk"));
+        assertThrows(IllegalArgumentException.class, () -> economy.getTopPage(vault, null, 0));
+    }
+
+    @Test
+    public void testUncachedUserAnsweredAfterTheLoad() {
+        CompletableFuture<User> load = new CompletableFuture<>();
+        when(database.getUser(uuid)).thenReturn(load);
+        assertEquals(OptionalDouble.empty(), economy.getBalanceIfCached("vault", uuid));
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        double[] result = {-1};
+        economy.withdraw("vault", uuid, 5, balance -> result[0] = balance, error::set);
+        CompletableFuture<Double> future = economy.getBalance("vault", uuid);
+        assertEquals(-1, result[0]);
+        assertFalse(future.isDone());
+
+        IllegalStateException failure = new IllegalStateException("test");
+        load.completeExceptionally(failure);
+        assertSame(failure, error.get());
+        assertTrue(future.isCompletedExceptionally());
+    }
+}
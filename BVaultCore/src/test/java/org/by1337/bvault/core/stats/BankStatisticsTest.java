@@ -0,0 +1,73 @@
+package org.by1337.bvault.core.stats;
+
+import org.by1337.bvault.api.BankStats;
+import org.by1337.bvault.core.db.BankScales;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BankStatisticsTest {
+
+    @Test
+    public void testUpdates() {
+        BankStatistics statistics = new BankStatistics(new BankScales());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        statistics.update("vault", first, null, 10_000);
+        statistics.update("vault", second, null, 30_000);
+        statistics.update("vault", first, 10_000L, 20_000);
+
+        BankStats stats = statistics.getStats("vault");
+        assertEquals(2, stats.accounts());
+        assertEquals(500, stats.total(), 1e-9);
+        assertEquals(250, stats.mean(), 1e-9);
+        assertEquals(200, stats.median(), 2);
+        assertEquals(0.6, stats.top1PercentShare(), 0.01);
+        assertEquals(0, statistics.getStats("other").accounts());
+
+        statistics.clear("vault");
+        assertEquals(0, statistics.getStats("vault").accounts());
+    }
+
+    @Test
+    public void testRebuildKeepsFlushesDuringTheScan() {
+        BankStatistics statistics = new BankStatistics(new BankScales());
+        UUID low = new UUID(1, 0);
+        UUID middle = new UUID(2, 0);
+        UUID high = new UUID(3, 0);
+        UUID added = new UUID(4, 0);
+        // the database has low = 100 and high = 300, the live statistics drifted
+        statistics.update("vault", low, null, 999);
+
+        BankStatistics.Rebuild rebuild = statistics.startRebuild();
+        assertNotNull(rebuild);
+        assertNull(statistics.startRebuild());
+        rebuild.accept("vault", low, 100);
+        // low was read already, high not yet, added is not in the database
+        statistics.update("vault", low, 100L, 150);
+        statistics.update("vault", high, 300L, 350);
+        statistics.update("vault", added, null, 50);
+        rebuild.accept("vault", middle, 200);
+        // read before the flush of 350 reached the database
+        rebuild.accept("vault", high, 300);
+        statistics.update("vault", high, 350L, 400);
+        assertTrue(rebuild.finish());
+
+        BankStats stats = statistics.getStats("vault");
+        assertEquals(4, stats.accounts());
+        assertEquals(8, stats.total(), 1e-9);
+    }
+
+    @Test
+    public void testRebuildAbortedByDrop() {
+        BankStatistics statistics = new BankStatistics(new BankScales());
+        BankStatistics.Rebuild rebuild = statistics.startRebuild();
+        rebuild.accept("vault", UUID.randomUUID(), 100);
+        statistics.clear(null);
+        assertFalse(rebuild.finish());
+        assertEquals(0, statistics.getStats("vault").accounts());
+        assertNotNull(statistics.startRebuild());
+    }
+}
@@ -0,0 +1,55 @@
+package org.by1337.bvault.core.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testQuantilesWithinAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        Random random = new Random(1337);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            // a long tail like real balances
+            values[i] = (long) Math.exp(random.nextDouble() * 25) - 1000;
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            long exact = values[(int) (q * (values.length - 1))];
+            assertEquals(exact, sketch.quantile(q), Math.abs(exact) * 0.01 + 1e-9, "q=" + q);
+        }
+        long largest = 0;
+        for (int i = values.length - 100; i < values.length; i++) {
+            largest += values[i];
+        }
+        assertEquals(largest, sketch.sumOfLargest(100), largest * 0.01);
+    }
+
+    @Test
+    public void testRemoveAndMerge() {
+        QuantileSketch a = new QuantileSketch(0.01);
+        QuantileSketch b = new QuantileSketch(0.01);
+        for (int i = 1; i <= 100; i++) {
+            a.add(i);
+            b.add(i * 1000L);
+        }
+        for (int i = 1; i <= 100; i++) {
+            a.remove(i);
+        }
+        assertEquals(0, a.count());
+        assertEquals(0, a.quantile(0.5));
+
+        a.add(0);
+        a.merge(b);
+        assertEquals(101, a.count());
+        assertEquals(0, a.quantile(0));
+        assertEquals(50_000, a.quantile(0.5), 500);
+        assertThrows(IllegalArgumentException.class, () -> a.merge(new QuantileSketch(0.05)));
+    }
+}
@@ -5,11 +5,17 @@ import org.bukkit.plugin.PluginManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.bukkit.plugin.Plugin;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 
@@ -106,6 +112,135 @@ public class BalTopTest {
         balTop.clear();
     }
 
+    @Test
+    public void testCountAbove() {
+        // not read from the database yet, so a top that is not full may miss players
+        balTop.updateBalance(UUID.randomUUID(), 100L, "bank1", "unknown");
+        assertEquals(-1, balTop.countAbove("bank1", 50L));
+
+        balTop.setTop(List.of(), "bank1");
+        for (int i = 1; i <= TOP_SIZE; i++) {
+            balTop.updateBalance(UUID.randomUUID(), i * 100L, "bank1", "unknown");
+        }
+        assertEquals(0, balTop.countAbove("bank1", 5000L));
+        assertEquals(5, balTop.countAbove("bank1", 500L));
+        assertEquals(9, balTop.countAbove("bank1", 100L));
+        // below the last position of a full top
+        assertEquals(-1, balTop.countAbove("bank1", 99L));
+        assertEquals(-1, balTop.countAbove("bank2", 0L));
+        // a listed balance dropped, players outside the top may be richer now
+        UUID dropped = UUID.randomUUID();
+        balTop.updateBalance(dropped, 10_000L, "bank1", "unknown");
+        balTop.updateBalance(dropped, 150L, "bank1", "unknown");
+        assertEquals(-1, balTop.countAbove("bank1", 500L));
+        balTop.clear();
+        assertEquals(0, balTop.countAbove("bank1", 0L));
+    }
+
+    @Test
+    public void testSnapshotRepublishedOnlyOnChange() {
+        UUID player1 = UUID.randomUUID();
+        UUID player2 = UUID.randomUUID();
+        assertSame(TopSnapshot.EMPTY, balTop.getSnapshot("bank1"));
+        balTop.updateBalance(player1, 100.0, "bank1", "unknown");
+        TopSnapshot snapshot = balTop.getSnapshot("bank1");
+        assertEquals(player1, snapshot.get(0).uuid());
+        assertEquals(TopInfo.EMPTY, snapshot.get(1));
+
+        balTop.updateBalance(player1, 100.0, "bank1", "unknown");
+        assertSame(snapshot, balTop.getSnapshot("bank1"));
+
+        balTop.updateBalance(player2, 200.0, "bank1", "unknown");
+        TopSnapshot next = balTop.getSnapshot("bank1");
+        assertTrue(next.version() > snapshot.version());
+        assertEquals(player2, next.get(0).uuid());
+        // an old snapshot never changes
+        assertEquals(1, snapshot.size());
+        balTop.clear();
+    }
+
+    @Test
+    public void testReconcileFillsFreedPosition() {
+        List<RankedIndex.Entry> stored = new ArrayList<>();
+        for (int i = 0; i <= TOP_SIZE; i++) {
+            stored.add(new RankedIndex.Entry(UUID.randomUUID(), "p" + i, 1000L - i));
+        }
+        // the top keeps TOP_SIZE players, the 11th is only in the database
+        balTop.reconcile("bank1", stored, uuid -> null);
+        assertFalse(balTop.isDirty("bank1"));
+        assertEquals(TOP_SIZE, balTop.getListed("bank1").size());
+        assertTrue(balTop.getListed("bank1").contains(stored.get(0).uuid()));
+        assertTrue(balTop.getListed("bank2").isEmpty());
+        UUID dropped = stored.get(0).uuid();
+        balTop.updateBalance(dropped, 1L, "bank1", "p0");
+        assertTrue(balTop.isDirty("bank1"));
+        assertEquals(dropped, balTop.getTop("bank1", TOP_SIZE).get(TOP_SIZE - 1).uuid());
+
+        // the database has not seen the drop yet, the balance in memory wins
+        balTop.reconcile("bank1", stored.subList(0, TOP_SIZE), uuid -> uuid.equals(dropped) ? 1L : null);
+        assertEquals(dropped, balTop.getTop("bank1", TOP_SIZE).get(TOP_SIZE - 1).uuid());
+
+        balTop.reconcile("bank1", stored.subList(1, TOP_SIZE + 1), uuid -> uuid.equals(dropped) ? 1L : null);
+        List<TopInfo> top = balTop.getTop("bank1", TOP_SIZE);
+        assertEquals(stored.get(1).uuid(), top.get(0).uuid());
+        assertEquals(stored.get(TOP_SIZE).uuid(), top.get(TOP_SIZE - 1).uuid());
+        assertFalse(balTop.isDirty("bank1"));
+        balTop.clear();
+    }
+
+    @Test
+    public void testUpdatesCoalesce() {
+        List<Runnable> tasks = new ArrayList<>();
+        ExecutorService queued = mock(ExecutorService.class);
+        doAnswer(invocation -> tasks.add(invocation.getArgument(0))).when(queued).execute(any(Runnable.class));
+        BalTop top = new BalTop(plugin, queued, TOP_SIZE);
+        UUID player1 = UUID.randomUUID();
+        UUID player2 = UUID.randomUUID();
+        for (int i = 1; i <= 100; i++) {
+            top.updateBalance(player1, (long) i, "bank1", "unknown");
+        }
+        top.updateBalance(player2, 50L, "bank1", "unknown");
+        // one drain for the whole burst, with only the latest balance of every player
+        assertEquals(1, tasks.size());
+        assertEquals(2, top.getMetrics().get("balTop.queueDepth"));
+        tasks.remove(0).run();
+        List<TopInfo> topList = top.getTop("bank1", 2);
+        assertEquals(player1, topList.get(0).uuid());
+        assertEquals(1.0, topList.get(0).balance());
+        assertEquals(player2, topList.get(1).uuid());
+        Map<String, Number> metrics = top.getMetrics();
+        assertEquals(0, metrics.get("balTop.queueDepth"));
+        assertEquals(2L, metrics.get("balTop.applied"));
+        assertEquals(99L, metrics.get("balTop.coalesced"));
+
+        top.updateBalance(player2, 10L, "bank1", "unknown");
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testSnapshotFileRoundTrip(@TempDir File dir) throws Exception {
+        File file = new File(dir, "baltop.dat");
+        UUID player1 = UUID.randomUUID();
+        UUID player2 = UUID.randomUUID();
+        balTop.updateBalance(player1, 100.5, "bank1", "first");
+        balTop.updateBalance(player2, 200.0, "bank2", null);
+        balTop.saveSnapshots(file);
+
+        BalTop restored = new BalTop(plugin, executorService, TOP_SIZE);
+        assertEquals(2, restored.loadSnapshots(file));
+        assertEquals(balTop.getTop("bank1", 2), restored.getTop("bank1", 2));
+        assertEquals(balTop.getTop("bank2", 2), restored.getTop("bank2", 2));
+        assertTrue(restored.isRestored("bank1"));
+        assertTrue(restored.isDirty("bank1"));
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[20] ^= 1;
+        Files.write(file.toPath(), bytes);
+        assertThrows(IOException.class, () -> new BalTop(plugin, executorService, TOP_SIZE).loadSnapshots(file));
+        assertEquals(0, restored.loadSnapshots(new File(dir, "missing.dat")));
+        balTop.clear();
+    }
+
     @AfterEach
     public void tearDown() throws Exception {
         closeable.close();
@@ -0,0 +1,83 @@
+package org.by1337.bvault.core.top;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RankedIndexTest {
+
+    @Test
+    public void testUpsertMovesPlayer() {
+        RankedIndex index = new RankedIndex();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        index.upsert(first, "first", 100);
+        index.upsert(second, "second", 50);
+        assertEquals(0, index.rank(first));
+        assertEquals(1, index.rank(second));
+
+        index.upsert(second, "second", 150);
+        assertEquals(2, index.size());
+        assertEquals(0, index.rank(second));
+        assertEquals(1, index.rank(first));
+        assertEquals(new RankedIndex.Entry(first, "first", 100), index.last());
+        assertEquals(-1, index.rank(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testRangeRemoveAndCountAbove() {
+        RankedIndex index = new RankedIndex();
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            index.upsert(uuid, "p" + i, i);
+        }
+        List<RankedIndex.Entry> range = index.range(10, 5);
+        assertEquals(5, range.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(89 - i, range.get(i).balance());
+        }
+        assertEquals(3, index.range(97, 10).size());
+        assertEquals(49, index.countAbove(50));
+
+        assertTrue(index.remove(players.get(99)));
+        assertFalse(index.remove(players.get(99)));
+        assertEquals(99, index.size());
+        assertEquals(0, index.rank(players.get(98)));
+        assertEquals(98, index.get(0).balance());
+    }
+
+    @Test
+    public void testMatchesSortedList() {
+        RankedIndex index = new RankedIndex();
+        Map<UUID, Long> balances = new HashMap<>();
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            players.add(UUID.randomUUID());
+        }
+        Random random = new Random(1337);
+        for (int i = 0; i < 2000; i++) {
+            UUID uuid = players.get(random.nextInt(players.size()));
+            if (random.nextInt(10) == 0) {
+                index.remove(uuid);
+                balances.remove(uuid);
+            } else {
+                long balance = random.nextInt(20);
+                index.upsert(uuid, "", balance);
+                balances.put(uuid, balance);
+            }
+        }
+        List<UUID> expected = new ArrayList<>(balances.keySet());
+        expected.sort(Comparator.<UUID>comparingLong(balances::get).reversed()
+                .thenComparing(uuid -> uuid.getMostSignificantBits(), Long::compareUnsigned)
+                .thenComparing(uuid -> uuid.getLeastSignificantBits(), Long::compareUnsigned));
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, index.rank(expected.get(i)));
+            assertEquals(expected.get(i), index.get(i).uuid());
+        }
+    }
+}
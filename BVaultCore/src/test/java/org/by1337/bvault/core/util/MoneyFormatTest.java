@@ -0,0 +1,53 @@
+package org.by1337.bvault.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyFormatTest {
+
+    @Test
+    public void testMatchesDecimalFormat() {
+        Random random = new Random(1337);
+        for (String pattern : new String[]{"#.##", "#", "#.00", "0.0#", "#.####"}) {
+            MoneyFormat format = new MoneyFormat(pattern, " ", ",");
+            DecimalFormat expected = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT));
+            expected.setGroupingUsed(true);
+            expected.setGroupingSize(3);
+            DecimalFormatSymbols symbols = expected.getDecimalFormatSymbols();
+            symbols.setGroupingSeparator(' ');
+            symbols.setDecimalSeparator(',');
+            expected.setDecimalFormatSymbols(symbols);
+            for (int i = 0; i < 10_000; i++) {
+                long minor = 100 + Math.floorMod(random.nextLong(), 10_000_000_000L);
+                assertEquals(expected.format(new BigDecimal(minor).movePointLeft(2)), format.format(minor, 2), pattern);
+                double value = 1 + random.nextDouble() * Math.pow(10, random.nextInt(12));
+                assertEquals(expected.format(value), format.format(value), pattern + " " + value);
+            }
+        }
+    }
+
+    @Test
+    public void testEdgeCases() {
+        MoneyFormat format = new MoneyFormat("#.##", ".", ",");
+        assertEquals("0", format.format(0.0));
+        assertEquals("0", format.format(-0.001));
+        assertEquals("0,5", format.format(0.5));
+        assertEquals("-1.234,5", format.format(-1234.5));
+        assertEquals("1.000.000", format.format(100_000_000, 2));
+        assertEquals("0,12", format.format(125, 3));
+        assertEquals("0,14", format.format(135, 3));
+        assertEquals("-92.233.720.368.547.758,08", format.format(Long.MIN_VALUE, 2));
+        String large = new BigDecimal(1.5e22).toPlainString().replaceAll("(\\d)(?=(\\d{3})+$)", "$1.");
+        assertEquals(large, format.format(1.5e22));
+        assertEquals("NaN", format.format(Double.NaN));
+        assertEquals("1", new MoneyFormat("#", " ", ",").format(12, 1));
+        assertEquals("007,50", new MoneyFormat("000.00", " ", ",").format(7.5));
+    }
+}